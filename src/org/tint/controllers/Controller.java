@@ -20,6 +20,7 @@ import java.util.List;
 
 import org.tint.addons.AddonManager;
 import org.tint.model.DownloadItem;
+import org.tint.providers.HistoryWriteQueue;
 import org.tint.ui.activities.TintBrowserActivity;
 import org.tint.ui.managers.UIManager;
 
@@ -58,10 +59,16 @@ public class Controller {
 	
 	private AddonManager mAddonManager;
 	
+	private HistoryWriteQueue mHistoryWriteQueue = null;
+	
 	public void init(UIManager uiManager, TintBrowserActivity activity) {
 		mUIManager = uiManager;
 		mMainActivity = activity;
 		mAddonManager = new AddonManager(mMainActivity, mUIManager);
+		
+		if (mHistoryWriteQueue == null) {
+			mHistoryWriteQueue = new HistoryWriteQueue(activity);
+		}
 	}
 	
 	public UIManager getUIManager() {
@@ -90,4 +97,8 @@ public class Controller {
 		return mAddonManager;
 	}
 	
+	public HistoryWriteQueue getHistoryWriteQueue() {
+		return mHistoryWriteQueue;
+	}
+	
 }
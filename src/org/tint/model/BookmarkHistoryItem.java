@@ -15,8 +15,9 @@
 
 package org.tint.model;
 
+import org.tint.utils.FaviconCache;
+
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 
 /**
  * Represent an history element.
@@ -26,32 +27,33 @@ public class BookmarkHistoryItem {
 	private long mId;
 	private String mTitle;
 	private String mUrl;
+	private long mVisitedDate;
 	private boolean mIsBookmark;
 	private boolean mIsFolder;
 	private long mFolderId;
-	private Bitmap mFavicon;
+	private byte[] mFaviconData;
+	
+	private String mFaviconKey = null;
+	private int mFaviconKeySize = -1;
 
 	/**
 	 * Constructor.
 	 * @param id The element id.
 	 * @param title The title.
 	 * @param url The url.
+	 * @param visitedDate The last visit date, 0 if never visited.
 	 * @param isBookmark True if this item is also a bookmark.
 	 * @param faviconData The favicon.
 	 */
-	public BookmarkHistoryItem(long id, String title, String url, boolean isBookmark, boolean isFolder, long folderId, byte[] faviconData) {
+	public BookmarkHistoryItem(long id, String title, String url, long visitedDate, boolean isBookmark, boolean isFolder, long folderId, byte[] faviconData) {
 		mId = id;
 		mTitle = title;
 		mUrl = url;
+		mVisitedDate = visitedDate;
 		mIsBookmark = isBookmark;
 		mIsFolder = isFolder;
 		mFolderId = folderId;
-		
-		if (faviconData != null) {
-			mFavicon = BitmapFactory.decodeByteArray(faviconData, 0, faviconData.length);
-		} else {
-			mFavicon = null;
-		}
+		mFaviconData = faviconData;
 	}
 
 	/**
@@ -78,6 +80,14 @@ public class BookmarkHistoryItem {
 		return mUrl;
 	}
 	
+	/**
+	 * Get the last visit date.
+	 * @return The last visit date, 0 if never visited.
+	 */
+	public long getVisitedDate() {
+		return mVisitedDate;
+	}
+	
 	public boolean isBookmark() {
 		return mIsBookmark;
 	}
@@ -91,11 +101,31 @@ public class BookmarkHistoryItem {
 	}
 	
 	/**
-	 * Get the favicon.
-	 * @return The favicon.
+	 * Get the favicon data. It is decoded on display, through the favicon cache.
+	 * @return The favicon data, or null.
 	 */
-	public Bitmap getFavicon() {
-		return mFavicon;
+	public byte[] getFaviconData() {
+		return mFaviconData;
+	}
+	
+	/**
+	 * Get the favicon, decoded and scaled through the favicon cache. The cache key is only built once,
+	 * so that displaying the item again does not allocate.
+	 * @param cache The favicon cache.
+	 * @param size The favicon size.
+	 * @return The favicon, or null.
+	 */
+	public Bitmap getFavicon(FaviconCache cache, int size) {
+		if (mFaviconData == null) {
+			return null;
+		}
+		
+		if (mFaviconKeySize != size) {
+			mFaviconKey = FaviconCache.getFaviconKey(mUrl, mFaviconData, size);
+			mFaviconKeySize = size;
+		}
+		
+		return cache.getFaviconByKey(mFaviconKey, mFaviconData, size);
 	}
 	
 }
@@ -16,11 +16,12 @@
 package org.tint.model;
 
 import org.tint.R;
-import org.tint.providers.BookmarksProvider;
+import org.tint.providers.BookmarksRowMapper;
+import org.tint.utils.ApplicationUtils;
+import org.tint.utils.ThumbnailBinder;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.graphics.BitmapFactory;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
@@ -29,12 +30,14 @@ import android.widget.TextView;
 
 public class BookmarksAdapter extends SimpleCursorAdapter {
 	
-	private int mDefaultThumbnailId;
+	private ThumbnailBinder mThumbnailBinder;
+	
+	private BookmarksRowMapper mRowMapper = null;
 	
 	public BookmarksAdapter(Context context, int layout, Cursor c, String[] from, int[] to, int flags, int defaultThumbnailId) {
 		super(context, layout, c, from, to, flags);
 		
-		mDefaultThumbnailId = defaultThumbnailId;
+		mThumbnailBinder = new ThumbnailBinder(context, ApplicationUtils.getBookmarksThumbnailsDimensions(context), defaultThumbnailId);
 	}
 	
 	@Override
@@ -43,25 +46,35 @@ public class BookmarksAdapter extends SimpleCursorAdapter {
 				
 		ImageView thumbnailView = (ImageView) superView.findViewById(R.id.BookmarkRow_Thumbnail);
 		
-		boolean isFolder = getCursor().getInt(getCursor().getColumnIndex(BookmarksProvider.Columns.IS_FOLDER)) > 0 ? true : false;
+		BookmarksRowMapper row = getRowMapper();
 		
-		if (!isFolder) {			
-			byte[] thumbnail = getCursor().getBlob(getCursor().getColumnIndex(BookmarksProvider.Columns.THUMBNAIL));
-			if (thumbnail != null) {
-				thumbnailView.setImageBitmap(BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length));
-			} else {
-				thumbnailView.setImageResource(mDefaultThumbnailId);
-			}
+		if (!row.isFolder()) {			
+			mThumbnailBinder.bind(thumbnailView, row.getId());
 		} else {
 			TextView tv = (TextView) superView.findViewById(R.id.BookmarkRow_Url);
 			if (tv != null) {
 				tv.setText(R.string.Folder);
 			}
 			
-			thumbnailView.setImageResource(R.drawable.ic_folder);
+			mThumbnailBinder.unbind(thumbnailView, R.drawable.ic_folder);
 		}
 		
 		return superView;
 	}
+	
+	/**
+	 * Get the row mapper for the current cursor, creating it if the cursor has changed.
+	 * @return The row mapper.
+	 */
+	private BookmarksRowMapper getRowMapper() {
+		Cursor c = getCursor();
+		
+		if ((mRowMapper == null) ||
+				(!mRowMapper.isMapping(c))) {
+			mRowMapper = new BookmarksRowMapper(c);
+		}
+		
+		return mRowMapper;
+	}
 
 }
@@ -15,14 +15,20 @@
 
 package org.tint.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.tint.R;
 import org.tint.providers.BookmarksProvider;
+import org.tint.providers.BookmarksWrapper;
+import org.tint.tasks.TaskExecutors;
+import org.tint.utils.FaviconCache;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.drawable.BitmapDrawable;
+import android.os.AsyncTask;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -35,24 +41,39 @@ import android.widget.CompoundButton.OnCheckedChangeListener;
 
 /**
  * Custom adapter for displaying history, splitted in bins.
+ * Bins counts are given by a cursor on BookmarksProvider.HISTORY_BINS_URI. The items of a bin are loaded
+ * by pages, in background, when its group is shown (see loadGroup()) and as its children are scrolled.
  * Adapted from:
  * https://github.com/CyanogenMod/android_packages_apps_Browser/blob/gingerbread/src/com/android/browser/BrowserHistoryPage.java
  * http://grepcode.com/file/repository.grepcode.com/java/ext/com.google.android/android-apps/2.2_r1.1/com/android/browser/DateSortedExpandableListAdapter.java/?v=source
  */
 public class HistoryAdapter extends BaseExpandableListAdapter {
 	
+	private static final int PAGE_SIZE = 50;
+	
+	/**
+	 * The next page of a bin is requested when a child closer than this to its last loaded item is shown.
+	 */
+	private static final int PREFETCH_DISTANCE = 10;
+	
 	private LayoutInflater mInflater = null;
 	
 	private int[] mItemMap;
 	private int mNumberOfBins;
 	private DateSorter mDateSorter;
-	private int mIdIndex;
 	
 	private Context mContext;
-	private Cursor mCursor;
+	private ContentResolver mContentResolver;
 	
-	private int mDateIndex;
+	private List<List<BookmarkHistoryItem>> mBinsItems;
+	private boolean[] mLoadingBins;
 	
+	/**
+	 * Incremented when bins change, so that pages loaded for previous bins are dropped.
+	 */
+	private int mGeneration;
+	
+	private FaviconCache mFaviconCache;
 	private int mFaviconSize;
 	
 	private OnCheckedChangeListener mBookmarkStarChangeListener;
@@ -60,85 +81,121 @@ public class HistoryAdapter extends BaseExpandableListAdapter {
 	/**
 	 * Constructor.
 	 * @param context The current context.
-	 * @param cursor The data cursor.
-	 * @param dateIndex The date index ?
+	 * @param bookmarksChangeListener The listener for the bookmark stars.
+	 * @param faviconSize The favicon size.
 	 */
 	public HistoryAdapter(Context context, OnCheckedChangeListener bookmarksChangeListener, int faviconSize) {
 		mContext = context;
+		mContentResolver = context.getContentResolver();
 		mBookmarkStarChangeListener = bookmarksChangeListener;
-		mCursor = null;
-		mDateIndex = -1;
+		mFaviconCache = FaviconCache.getInstance(context);
 		mFaviconSize = faviconSize;
 		
 		mDateSorter = new DateSorter(mContext);
 		
+		mItemMap = new int[DateSorter.DAY_COUNT];
+		mNumberOfBins = 0;
+		
+		mBinsItems = new ArrayList<List<BookmarkHistoryItem>>(DateSorter.DAY_COUNT);
+		for (int i = 0; i < DateSorter.DAY_COUNT; i++) {
+			mBinsItems.add(new ArrayList<BookmarkHistoryItem>());
+		}
+		
+		mLoadingBins = new boolean[DateSorter.DAY_COUNT];
+		mGeneration = 0;
+		
 		mInflater = (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 	}
 	
-	public void changeCursor(Cursor cursor) {
-		if (mCursor == cursor) {
-			return;
+	public DateSorter getDateSorter() {
+		return mDateSorter;
+	}
+	
+	/**
+	 * Change the bins counts. The bins already loaded are reloaded in background, up to their currently loaded size.
+	 * @param bins The bins cursor, may be null.
+	 */
+	public void changeBins(Cursor bins) {
+		mGeneration++;
+		
+		int[] array = new int[DateSorter.DAY_COUNT];
+		mNumberOfBins = 0;
+		
+		if ((bins != null) &&
+				(bins.moveToFirst())) {
+			int binIndex = bins.getColumnIndex(BookmarksProvider.HISTORY_BIN);
+			int countIndex = bins.getColumnIndex(BookmarksProvider.HISTORY_BIN_COUNT);
+			
+			do {
+				array[bins.getInt(binIndex)] = bins.getInt(countIndex);
+				mNumberOfBins++;
+			} while (bins.moveToNext());
 		}
 		
-		mCursor = cursor;
+		mItemMap = array;
 		
-		if (mCursor != null) {
-			mIdIndex = mCursor.getColumnIndexOrThrow(BookmarksProvider.Columns._ID);
-			mDateIndex = mCursor.getColumnIndexOrThrow(BookmarksProvider.Columns.VISITED_DATE);
+		for (int i = 0; i < DateSorter.DAY_COUNT; i++) {
+			List<BookmarkHistoryItem> items = mBinsItems.get(i);
 			
-			buildMap();
+			mLoadingBins[i] = false;
 			
+			if (mItemMap[i] == 0) {
+				items.clear();
+			} else if (!items.isEmpty()) {
+				loadPage(i, true, Math.max(items.size(), PAGE_SIZE));
+			}
+		}
+		
+		if (bins != null) {
 			notifyDataSetChanged();
 		} else {
-			mIdIndex = -1;
-			mDateIndex = -1;
-			
 			notifyDataSetInvalidated();
 		}
 	}
 	
 	/**
-	 * Get a long-typed data from mCursor.
-	 * @param cursorIndex The column index.
-	 * @return The long data.
+	 * Load the first page of a group, if not already loaded.
+	 * @param groupPosition The group position.
 	 */
-	private long getLong(int cursorIndex) {
-        return mCursor.getLong(cursorIndex);
-    }
+	public void loadGroup(int groupPosition) {
+		if (groupPosition < mNumberOfBins) {
+			int bin = groupPositionToBin(groupPosition);
+			
+			if (mBinsItems.get(bin).isEmpty()) {
+				loadPage(bin, false, PAGE_SIZE);
+			}
+		}
+	}
 	
 	/**
-	 * Split the data in the cursor into several "bins": today, yesterday, last 7 days, last month, older.
+	 * Start loading a page of a bin, unless the bin is being loaded or is complete.
+	 * @param bin The bin.
+	 * @param reload True to reload the bin from its first item, false to load the page following its last loaded item.
+	 * @param limit The page size.
 	 */
-	private void buildMap() {
-		int[] array = new int[DateSorter.DAY_COUNT];
-        // Zero out the array.
-        for (int j = 0; j < DateSorter.DAY_COUNT; j++) {
-            array[j] = 0;
-        }
-        
-        mNumberOfBins = 0;
-        int dateIndex = -1;
-        if (mCursor.moveToFirst() && mCursor.getCount() > 0) {
-            while (!mCursor.isAfterLast()) {
-                long date = getLong(mDateIndex);
-                int index = mDateSorter.getIndex(date);
-                if (index > dateIndex) {
-                    mNumberOfBins++;
-                    if (index == DateSorter.DAY_COUNT - 1) {
-                        // We are already in the last bin, so it will
-                        // include all the remaining items
-                        array[index] = mCursor.getCount()
-                                - mCursor.getPosition();
-                        break;
-                    }
-                    dateIndex = index;
-                }
-                array[dateIndex]++;
-                mCursor.moveToNext();
-            }
-        }
-        
-        mItemMap = array;
+	private void loadPage(int bin, boolean reload, int limit) {
+		List<BookmarkHistoryItem> items = mBinsItems.get(bin);
+		
+		if ((mLoadingBins[bin]) ||
+				((!reload) && (items.size() >= mItemMap[bin]))) {
+			return;
+		}
+		
+		long afterDate;
+		long afterId;
+		
+		if ((reload) ||
+				(items.isEmpty())) {
+			afterDate = bin > 0 ? mDateSorter.getBoundary(bin - 1) : Long.MAX_VALUE;
+			afterId = Long.MAX_VALUE;
+		} else {
+			BookmarkHistoryItem last = items.get(items.size() - 1);
+			afterDate = last.getVisitedDate();
+			afterId = last.getId();
+		}
+		
+		mLoadingBins[bin] = true;
+		new PageLoadTask(bin, reload, afterDate, afterId, limit).executeOnExecutor(TaskExecutors.USER_READS);
 	}
 	
 	/**
@@ -173,91 +230,67 @@ public class HistoryAdapter extends BaseExpandableListAdapter {
         
         return arrayPosition;
     }
-    
-    /**
-     * Move the cursor to the record corresponding to the given group position and child position. 
-     * @param groupPosition The group position.
-     * @param childPosition The child position.
-     * @return True if the move has succeeded.
-     */
-	private boolean moveCursorToChildPosition(int groupPosition, int childPosition) {
-        if (mCursor.isClosed()) {
-        	return false;
-        }
-        
-        groupPosition = groupPositionToBin(groupPosition);
-        int index = childPosition;
-        for (int i = 0; i < groupPosition; i++) {
-            index += mItemMap[i];
-        }
-        
-        return mCursor.moveToPosition(index);
-    }
 	
 	/**
-	 * Create a new child view.
+	 * Create a new child view, with its holder.
+	 * @param parent The parent view.
 	 * @return The created view.
 	 */
-	private View getCustomChildView() {		
-		return mInflater.inflate(R.layout.history_row, null, false);
+	private View getCustomChildView(ViewGroup parent) {
+		View view = mInflater.inflate(R.layout.history_row, parent, false);
+		view.setTag(new ChildViewHolder(view));
+		
+		return view;
 	}
 
 	@Override
 	public Object getChild(int groupPosition, int childPosition) {
-		moveCursorToChildPosition(groupPosition, childPosition);
-
-		return new BookmarkHistoryItem(mCursor.getLong(mCursor.getColumnIndex(BookmarksProvider.Columns._ID)),
-				mCursor.getString(mCursor.getColumnIndex(BookmarksProvider.Columns.TITLE)),
-				mCursor.getString(mCursor.getColumnIndex(BookmarksProvider.Columns.URL)),
-				mCursor.getInt(mCursor.getColumnIndex(BookmarksProvider.Columns.BOOKMARK)) >= 1 ? true : false,
-				mCursor.getInt(mCursor.getColumnIndex(BookmarksProvider.Columns.IS_FOLDER)) >= 1 ? true : false,
-				mCursor.getLong(mCursor.getColumnIndex(BookmarksProvider.Columns.PARENT_FOLDER_ID)),
-				mCursor.getBlob(mCursor.getColumnIndex(BookmarksProvider.Columns.FAVICON)));
+		return mBinsItems.get(groupPositionToBin(groupPosition)).get(childPosition);
 	}
 
 	@Override
 	public long getChildId(int groupPosition, int childPosition) {
-		if (moveCursorToChildPosition(groupPosition, childPosition)) {
-            return getLong(mIdIndex);
-        }
-		
-        return 0;
+		return ((BookmarkHistoryItem) getChild(groupPosition, childPosition)).getId();
 	}
 
 	@Override
 	public View getChildView(int groupPosition, int childPosition, boolean isLastChild, View convertView, ViewGroup parent) {
-		View view = getCustomChildView();
+		int bin = groupPositionToBin(groupPosition);
+		if (childPosition >= mBinsItems.get(bin).size() - PREFETCH_DISTANCE) {
+			loadPage(bin, false, PAGE_SIZE);
+		}
+		
+		View view = convertView;
+		if ((view == null) ||
+				(!(view.getTag() instanceof ChildViewHolder))) {
+			view = getCustomChildView(parent);
+		}
         
-		TextView titleView = (TextView) view.findViewById(R.id.HistoryRow_Title);
+		ChildViewHolder holder = (ChildViewHolder) view.getTag();
 		
-		BookmarkHistoryItem item = (BookmarkHistoryItem) getChild(groupPosition, childPosition);
-		titleView.setText(item.getTitle());
+		BookmarkHistoryItem item = mBinsItems.get(bin).get(childPosition);
+		if (holder.mItem == item) {
+			// Rebound after a data set change: the row is up to date.
+			return view;
+		}
 		
-		TextView urlView = (TextView) view.findViewById(R.id.HistoryRow_Url);		 					
-		urlView.setText(item.getUrl());
+		holder.mItem = item;
 		
-		CheckBox bookmarkStar = (CheckBox) view.findViewById(R.id.HistoryRow_BookmarkStar);
+		holder.mTitleView.setText(item.getTitle());
+		holder.mUrlView.setText(item.getUrl());
 		
-		bookmarkStar.setTag(item.getId());
+		// The item itself is the tag, an id would be boxed on each bind.
+		holder.mBookmarkStar.setTag(item);
 		
-		bookmarkStar.setOnCheckedChangeListener(null);
-		bookmarkStar.setChecked(item.isBookmark());
-		bookmarkStar.setOnCheckedChangeListener(mBookmarkStarChangeListener);
+		holder.mBookmarkStar.setOnCheckedChangeListener(null);
+		holder.mBookmarkStar.setChecked(item.isBookmark());
+		holder.mBookmarkStar.setOnCheckedChangeListener(mBookmarkStarChangeListener);
 		
-		ImageView faviconView = (ImageView) view.findViewById(R.id.HistoryRow_Thumbnail);
-		Bitmap favicon = item.getFavicon();
+		Bitmap favicon = item.getFavicon(mFaviconCache, mFaviconSize);
 		if (favicon != null) {
-			BitmapDrawable icon = new BitmapDrawable(view.getResources(), favicon);
-			
-			Bitmap bm = Bitmap.createBitmap(mFaviconSize, mFaviconSize, Bitmap.Config.ARGB_8888);
-			Canvas canvas = new Canvas(bm);
-			
-			icon.setBounds(0, 0, mFaviconSize, mFaviconSize);
-			icon.draw(canvas);
-			
-			faviconView.setImageBitmap(bm);
+			holder.mFaviconView.setImageBitmap(favicon);
 		} else {
-			faviconView.setImageResource(R.drawable.app_web_browser_sm);
+			holder.mFaviconView.setImageResource(R.drawable.app_web_browser_sm);
 		}
         
         return view;
@@ -265,11 +298,7 @@ public class HistoryAdapter extends BaseExpandableListAdapter {
 
 	@Override
 	public int getChildrenCount(int groupPosition) {
-		if (mItemMap != null) {
-			return mItemMap[groupPositionToBin(groupPosition)];
-		} else {
-			return 0;
-		}
+		return mBinsItems.get(groupPositionToBin(groupPosition)).size();
 	}
 
 	@Override
@@ -321,5 +350,79 @@ public class HistoryAdapter extends BaseExpandableListAdapter {
 	public boolean isChildSelectable(int groupPosition, int childPosition) {
 		return true;
 	}
+	
+	/**
+	 * The views of a child row, and the item it displays.
+	 */
+	private static class ChildViewHolder {
+		
+		private TextView mTitleView;
+		private TextView mUrlView;
+		private CheckBox mBookmarkStar;
+		private ImageView mFaviconView;
+		
+		private BookmarkHistoryItem mItem;
+		
+		public ChildViewHolder(View view) {
+			mTitleView = (TextView) view.findViewById(R.id.HistoryRow_Title);
+			mUrlView = (TextView) view.findViewById(R.id.HistoryRow_Url);
+			mBookmarkStar = (CheckBox) view.findViewById(R.id.HistoryRow_BookmarkStar);
+			mFaviconView = (ImageView) view.findViewById(R.id.HistoryRow_Thumbnail);
+			
+			mItem = null;
+		}
+		
+	}
+	
+	/**
+	 * Load a page of a bin in background.
+	 */
+	private class PageLoadTask extends AsyncTask<Void, Void, List<BookmarkHistoryItem>> {
+		
+		private int mGenerationAtStart;
+		private int mBin;
+		private boolean mReload;
+		private long mAfterDate;
+		private long mAfterId;
+		private int mLimit;
+		
+		public PageLoadTask(int bin, boolean reload, long afterDate, long afterId, int limit) {
+			mGenerationAtStart = mGeneration;
+			mBin = bin;
+			mReload = reload;
+			mAfterDate = afterDate;
+			mAfterId = afterId;
+			mLimit = limit;
+		}
+		
+		@Override
+		protected List<BookmarkHistoryItem> doInBackground(Void... params) {
+			return BookmarksWrapper.getHistoryPage(mContentResolver, mDateSorter.getBoundary(mBin), mAfterDate, mAfterId, mLimit);
+		}
+		
+		@Override
+		protected void onPostExecute(List<BookmarkHistoryItem> result) {
+			if (mGenerationAtStart != mGeneration) {
+				return;
+			}
+			
+			mLoadingBins[mBin] = false;
+			
+			List<BookmarkHistoryItem> items = mBinsItems.get(mBin);
+			if (mReload) {
+				items.clear();
+			}
+			
+			items.addAll(result);
+			
+			if ((result.size() < mLimit) &&
+					(!items.isEmpty())) {
+				// End of the bin, even if its count has changed meanwhile.
+				mItemMap[mBin] = items.size();
+			}
+			
+			notifyDataSetChanged();
+		}
+	}
 
 }
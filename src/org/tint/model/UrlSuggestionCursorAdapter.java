@@ -16,7 +16,7 @@
 package org.tint.model;
 
 import org.tint.R;
-import org.tint.providers.BookmarksProvider;
+import org.tint.providers.BookmarksRowMapper;
 
 import android.content.Context;
 import android.database.Cursor;
@@ -37,6 +37,8 @@ public class UrlSuggestionCursorAdapter extends SimpleCursorAdapter {
 	
 	private QueryBuilderListener mQueryBuilderListener = null;
 	
+	private BookmarksRowMapper mRowMapper = null;
+	
 	/**
 	 * Constructor.
 	 * @param context The context.
@@ -57,14 +59,15 @@ public class UrlSuggestionCursorAdapter extends SimpleCursorAdapter {
 		
 		ImageView iconView = (ImageView) superView.findViewById(R.id.AutocompleteImageView);
 
-		int resultType = getCursor().getInt(getCursor().getColumnIndex(BookmarksProvider.Columns.BOOKMARK));
+		BookmarksRowMapper row = getRowMapper();
 		
-		switch (resultType) {
-		case 0: iconView.setImageResource(R.drawable.ic_search_category_history); break;
-		default: iconView.setImageResource(R.drawable.ic_search_category_bookmark); break;
+		if (row.isBookmark()) {
+			iconView.setImageResource(R.drawable.ic_search_category_bookmark);
+		} else {
+			iconView.setImageResource(R.drawable.ic_search_category_history);
 		}
 		
-		final String url = getCursor().getString(getCursor().getColumnIndex(BookmarksProvider.Columns.URL));
+		final String url = row.getUrl();
 		
 		ImageView queryBuilderView = (ImageView) superView.findViewById(R.id.AutoCompleteQueryBuilder);
 		queryBuilderView.setOnClickListener(new OnClickListener() {			
@@ -79,6 +82,19 @@ public class UrlSuggestionCursorAdapter extends SimpleCursorAdapter {
 		return superView;
 	}
 	
-	
+	/**
+	 * Get the row mapper for the current cursor, creating it if the cursor has changed.
+	 * @return The row mapper.
+	 */
+	private BookmarksRowMapper getRowMapper() {
+		Cursor c = getCursor();
+		
+		if ((mRowMapper == null) ||
+				(!mRowMapper.isMapping(c))) {
+			mRowMapper = new BookmarksRowMapper(c);
+		}
+		
+		return mRowMapper;
+	}
 
 }
@@ -15,31 +15,132 @@
 
 package org.tint.providers;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.tint.utils.Constants;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.database.sqlite.SQLiteStatement;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.preference.PreferenceManager;
 import android.text.TextUtils;
+import android.util.Log;
 
 public class BookmarksProvider extends ContentProvider {	
 	
 	public static final String AUTHORITY = "org.tint.providers.bookmarksprovider";
 	
 	private static final String BOOKMARKS_TABLE = "bookmarks";
+	private static final String FAVICONS_TABLE = "favicons";
+	private static final String FAVICON_DATA_TABLE = "favicon_data";
+	private static final String FAVICON_HOSTS_TABLE = "favicon_hosts";
+	private static final String THUMBNAILS_TABLE = "thumbnails";
+	private static final String FOLDER_TREE_TABLE = "folder_tree";
+	private static final String VISIT_LOG_TABLE = "visit_log";
+	private static final String SEARCH_TABLE = "bookmarks_fts";
 	
 	public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.tint.bookmarks";
 	public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.tint.bookmarks";
 	
 	public static final Uri BOOKMARKS_URI = Uri.parse("content://" + AUTHORITY + "/" + BOOKMARKS_TABLE);
 	
+	/**
+	 * Inserting into this uri records a page visit. Values are the title, the url, and optionally the
+	 * original url (VISIT_ORIGINAL_URL) of the page and the visit transition (VISIT_TRANSITION).
+	 * The returned uri is the one of the visited record.
+	 * Deleting from this uri removes the visits matching a selection on VISIT_DATE and VISIT_TRANSITION,
+	 * e.g. a date range. The visits count and visited date of the records are updated accordingly, and
+	 * history records left without visits are removed.
+	 */
+	public static final Uri VISITS_URI = Uri.parse("content://" + AUTHORITY + "/visits");
+	public static final String VISIT_ORIGINAL_URL = "original_url";
+	public static final String VISIT_DATE = "visit_date";
+	public static final String VISIT_TRANSITION = "transition";
+	
+	/**
+	 * Visit transitions: how the user reached the visited page.
+	 * TRANSITION_IMPORT marks a visit standing for the history of an imported or upgraded record,
+	 * it is logged with the number of visits it stands for, already counted in the visits count of the record.
+	 */
+	public static final int TRANSITION_LINK = 0;
+	public static final int TRANSITION_TYPED = 1;
+	public static final int TRANSITION_REDIRECT = 2;
+	public static final int TRANSITION_IMPORT = 3;
+	
+	/**
+	 * Folders subtrees. For a folder uri (FOLDERS_URI/#):
+	 * - query returns the folder, its sub-folders and their content;
+	 * - update moves the folder when a new parent folder id is given;
+	 * - delete removes the folder and its sub-folders. Their bookmarks which have been visited are kept in history.
+	 * FOLDERS_URI/#/count returns a single row with the number of sub-folders and bookmarks of the folder.
+	 */
+	public static final Uri FOLDERS_URI = Uri.parse("content://" + AUTHORITY + "/folders");
+	public static final String FOLDER_COUNT_FOLDERS = "folders_count";
+	public static final String FOLDER_COUNT_BOOKMARKS = "bookmarks_count";
+	
+	/**
+	 * History records counts by date bins. The selection arguments are the bins lower boundaries, exclusive,
+	 * from the most recent bin. Records older than the last boundary are counted in a last bin.
+	 * The returned cursor has a row for each non-empty bin, with the bin index and its records count.
+	 */
+	public static final Uri HISTORY_BINS_URI = Uri.parse("content://" + AUTHORITY + "/history/bins");
+	public static final String HISTORY_BIN = "bin";
+	public static final String HISTORY_BIN_COUNT = "bin_count";
+	
+	/**
+	 * Full-text search on the titles and urls of history and bookmarks records. The search text is given in
+	 * the SEARCH_QUERY parameter, each of its words matching the words starting with it, and the maximum
+	 * number of results in the SEARCH_LIMIT parameter.
+	 */
+	public static final Uri SEARCH_URI = Uri.parse("content://" + AUTHORITY + "/search");
+	public static final String SEARCH_QUERY = "q";
+	public static final String SEARCH_LIMIT = "limit";
+	
+	/**
+	 * Changes are notified on scoped uris, children of CHANGES_URI, so that observers are only notified of
+	 * what they display. Queries are notified on CHANGES_URI, e.g. on any change, unless a list of scopes
+	 * is given in the QUERY_PARAMETER_OBSERVE parameter of the query uri (see getObservingUri()).
+	 */
+	public static final Uri CHANGES_URI = Uri.parse("content://" + AUTHORITY + "/changes");
+	public static final String CHANGES_HISTORY = "history";
+	public static final String CHANGES_BOOKMARKS = "bookmarks";
+	public static final String CHANGES_FOLDERS = "folders";
+	public static final String CHANGES_FAVICONS = "images/favicons";
+	public static final String CHANGES_THUMBNAILS = "images/thumbnails"; // Notified by ThumbnailStore.
+	
+	public static final String QUERY_PARAMETER_OBSERVE = "observe";
+	
 	public static class Columns {
 		public static final String _ID = "_id";
 		public static final String TITLE = "title";
@@ -51,10 +152,43 @@ public class BookmarksProvider extends ContentProvider {
 		public static final String IS_FOLDER = "is_folder";
 		public static final String PARENT_FOLDER_ID = "parent_folder_id";
 		public static final String FAVICON = "favicon";
-		public static final String THUMBNAIL = "thumbnail";
+		public static final String FRECENCY = "frecency";
 	}
 	
-	private static final int DATABASE_VERSION = 2;
+	/**
+	 * Column of the images tables referencing the bookmarks table.
+	 */
+	private static final String IMAGES_BOOKMARK_ID = "bookmark_id";
+	
+	/**
+	 * Thumbnails were stored in the database until version 12, they are now stored by ThumbnailStore.
+	 */
+	private static final String THUMBNAIL = "thumbnail";
+	
+	/**
+	 * Favicons are stored once per distinct image in the favicon data table, keyed by the hash of their data.
+	 * The favicons table references them by record, and the favicon hosts table by host, so that a new record
+	 * of a known host gets its favicon without writing it again.
+	 */
+	private static final String FAVICON_ID = "favicon_id";
+	private static final String FAVICON_HASH = "hash";
+	private static final String FAVICON_HOST = "host";
+	
+	/**
+	 * Columns of the folder tree table. It holds a row for each (folder, sub-folder at any depth) pair,
+	 * including the folder itself at depth 0.
+	 */
+	private static final String TREE_ANCESTOR_ID = "ancestor_id";
+	private static final String TREE_DESCENDANT_ID = "descendant_id";
+	private static final String TREE_DEPTH = "depth";
+	
+	/**
+	 * Columns of the visit log table: the referenced record, and the number of visits a row stands for.
+	 */
+	private static final String LOG_BOOKMARK_ID = "bookmark_id";
+	private static final String LOG_VISIT_COUNT = "visit_count";
+	
+	private static final int DATABASE_VERSION = 13;
 	private static final String DATABASE_NAME = "bookmarks.db";
 	
 	private static final String BOOKMARKS_TABLE_CREATE = "CREATE TABLE " + BOOKMARKS_TABLE + " (" + 
@@ -67,18 +201,359 @@ public class BookmarksProvider extends ContentProvider {
 		Columns.BOOKMARK + " INTEGER, " +
 		Columns.IS_FOLDER + " INTEGER NOT NULL DEFAULT 0, " +
 		Columns.PARENT_FOLDER_ID + " INTEGER NOT NULL DEFAULT -1, " +
-		Columns.FAVICON + " BLOB DEFAULT NULL, " + 
-		Columns.THUMBNAIL + " BLOB DEFAULT NULL);";
+		Columns.FRECENCY + " INTEGER NOT NULL DEFAULT 0);";
+	
+	private static final String FAVICONS_TABLE_CREATE = "CREATE TABLE " + FAVICONS_TABLE + " (" +
+		IMAGES_BOOKMARK_ID + " INTEGER PRIMARY KEY, " +
+		FAVICON_ID + " INTEGER NOT NULL);";
+	
+	private static final String FAVICON_DATA_TABLE_CREATE = "CREATE TABLE " + FAVICON_DATA_TABLE + " (" +
+		FAVICON_ID + " INTEGER PRIMARY KEY, " +
+		FAVICON_HASH + " TEXT NOT NULL UNIQUE, " +
+		Columns.FAVICON + " BLOB);";
+	
+	private static final String FAVICON_HOSTS_TABLE_CREATE = "CREATE TABLE " + FAVICON_HOSTS_TABLE + " (" +
+		FAVICON_HOST + " TEXT PRIMARY KEY, " +
+		FAVICON_ID + " INTEGER NOT NULL);";
+	
+	private static final String[] FAVICONS_INDEXES_CREATE = new String[] {
+		"CREATE INDEX " + FAVICONS_TABLE + "_" + FAVICON_ID + "_index ON " + FAVICONS_TABLE + " (" + FAVICON_ID + ");",
+		"CREATE INDEX " + FAVICON_HOSTS_TABLE + "_" + FAVICON_ID + "_index ON " + FAVICON_HOSTS_TABLE + " (" + FAVICON_ID + ");" };
+	
+	/**
+	 * Favicon data is deleted when it is no longer referenced, by a record or by a host.
+	 */
+	private static final String FAVICON_DATA_CLEANUP = "DELETE FROM " + FAVICON_DATA_TABLE + " WHERE " + FAVICON_ID + " = old." + FAVICON_ID + " AND " +
+		"NOT EXISTS (SELECT 1 FROM " + FAVICONS_TABLE + " WHERE " + FAVICON_ID + " = old." + FAVICON_ID + ") AND " +
+		"NOT EXISTS (SELECT 1 FROM " + FAVICON_HOSTS_TABLE + " WHERE " + FAVICON_ID + " = old." + FAVICON_ID + "); ";
+	
+	private static final String[] FAVICONS_TRIGGERS_CREATE = new String[] {
+		"CREATE TRIGGER " + FAVICONS_TABLE + "_delete AFTER DELETE ON " + FAVICONS_TABLE + " BEGIN " + FAVICON_DATA_CLEANUP + "END;",
+		"CREATE TRIGGER " + FAVICONS_TABLE + "_update AFTER UPDATE OF " + FAVICON_ID + " ON " + FAVICONS_TABLE + " BEGIN " + FAVICON_DATA_CLEANUP + "END;",
+		"CREATE TRIGGER " + FAVICON_HOSTS_TABLE + "_delete AFTER DELETE ON " + FAVICON_HOSTS_TABLE + " BEGIN " + FAVICON_DATA_CLEANUP + "END;",
+		"CREATE TRIGGER " + FAVICON_HOSTS_TABLE + "_update AFTER UPDATE OF " + FAVICON_ID + " ON " + FAVICON_HOSTS_TABLE + " BEGIN " + FAVICON_DATA_CLEANUP + "END;" };
+	
+	private static final String IMAGES_CLEANUP_TRIGGER_CREATE = "CREATE TRIGGER " + BOOKMARKS_TABLE + "_images_cleanup AFTER DELETE ON " + BOOKMARKS_TABLE + " BEGIN " +
+		"DELETE FROM " + FAVICONS_TABLE + " WHERE " + IMAGES_BOOKMARK_ID + " = old." + Columns._ID + "; " +
+		"END;";
+	
+	private static final String FOLDER_TREE_TABLE_CREATE = "CREATE TABLE " + FOLDER_TREE_TABLE + " (" +
+		TREE_ANCESTOR_ID + " INTEGER NOT NULL, " +
+		TREE_DESCENDANT_ID + " INTEGER NOT NULL, " +
+		TREE_DEPTH + " INTEGER NOT NULL, " +
+		"PRIMARY KEY (" + TREE_ANCESTOR_ID + ", " + TREE_DESCENDANT_ID + "));";
+	
+	private static final String FOLDER_TREE_INDEX_CREATE = "CREATE INDEX " + FOLDER_TREE_TABLE + "_descendant_index ON " + FOLDER_TREE_TABLE + " (" + TREE_DESCENDANT_ID + ");";
+	
+	private static final String[] FOLDER_TREE_TRIGGERS_CREATE = new String[] {
+		"CREATE TRIGGER " + FOLDER_TREE_TABLE + "_insert AFTER INSERT ON " + BOOKMARKS_TABLE + " WHEN new." + Columns.IS_FOLDER + " = 1 BEGIN " +
+			"INSERT INTO " + FOLDER_TREE_TABLE + " (" + TREE_ANCESTOR_ID + ", " + TREE_DESCENDANT_ID + ", " + TREE_DEPTH + ") VALUES (new." + Columns._ID + ", new." + Columns._ID + ", 0); " +
+			"INSERT INTO " + FOLDER_TREE_TABLE + " (" + TREE_ANCESTOR_ID + ", " + TREE_DESCENDANT_ID + ", " + TREE_DEPTH + ") " +
+				"SELECT " + TREE_ANCESTOR_ID + ", new." + Columns._ID + ", " + TREE_DEPTH + " + 1 FROM " + FOLDER_TREE_TABLE + " WHERE " + TREE_DESCENDANT_ID + " = new." + Columns.PARENT_FOLDER_ID + "; " +
+			"END;",
+		// Moving a folder detaches its subtree from its former ancestors, then attaches it to the new ones.
+		"CREATE TRIGGER " + FOLDER_TREE_TABLE + "_move AFTER UPDATE OF " + Columns.PARENT_FOLDER_ID + " ON " + BOOKMARKS_TABLE +
+			" WHEN new." + Columns.IS_FOLDER + " = 1 AND old." + Columns.PARENT_FOLDER_ID + " != new." + Columns.PARENT_FOLDER_ID + " BEGIN " +
+			"DELETE FROM " + FOLDER_TREE_TABLE + " WHERE " +
+				TREE_DESCENDANT_ID + " IN (SELECT " + TREE_DESCENDANT_ID + " FROM " + FOLDER_TREE_TABLE + " WHERE " + TREE_ANCESTOR_ID + " = new." + Columns._ID + ") AND " +
+				TREE_ANCESTOR_ID + " NOT IN (SELECT " + TREE_DESCENDANT_ID + " FROM " + FOLDER_TREE_TABLE + " WHERE " + TREE_ANCESTOR_ID + " = new." + Columns._ID + "); " +
+			"INSERT INTO " + FOLDER_TREE_TABLE + " (" + TREE_ANCESTOR_ID + ", " + TREE_DESCENDANT_ID + ", " + TREE_DEPTH + ") " +
+				"SELECT p." + TREE_ANCESTOR_ID + ", c." + TREE_DESCENDANT_ID + ", p." + TREE_DEPTH + " + c." + TREE_DEPTH + " + 1 FROM " + FOLDER_TREE_TABLE + " p, " + FOLDER_TREE_TABLE + " c " +
+				"WHERE p." + TREE_DESCENDANT_ID + " = new." + Columns.PARENT_FOLDER_ID + " AND c." + TREE_ANCESTOR_ID + " = new." + Columns._ID + "; " +
+			"END;",
+		"CREATE TRIGGER " + FOLDER_TREE_TABLE + "_delete AFTER DELETE ON " + BOOKMARKS_TABLE + " WHEN old." + Columns.IS_FOLDER + " = 1 BEGIN " +
+			"DELETE FROM " + FOLDER_TREE_TABLE + " WHERE " + TREE_ANCESTOR_ID + " = old." + Columns._ID + " OR " + TREE_DESCENDANT_ID + " = old." + Columns._ID + "; " +
+			"END;" };
+	
+	/**
+	 * Frecency: a ranking score combining the visits, their recency and the bookmark status of a record.
+	 * Each visit adds the weight of its transition, a bookmark adds a constant bonus, and the visits part
+	 * of the score is decayed every day.
+	 */
+	private static final int FRECENCY_LINK_WEIGHT = 100;
+	private static final int FRECENCY_TYPED_WEIGHT = 200;
+	private static final int FRECENCY_REDIRECT_WEIGHT = 25;
+	private static final int FRECENCY_BOOKMARK_BONUS = 150;
+	private static final double FRECENCY_DAILY_DECAY = 0.975;
+	
+	/**
+	 * Visits of an imported record are only known by their count and their last date. They are counted up
+	 * to this number, with a weight depending on the age of the last visit.
+	 */
+	private static final int FRECENCY_IMPORTED_VISITS_MAX = 10;
+	
+	private static final long DAY_IN_MILLISECONDS = 24 * 3600 * 1000;
+	
+	/**
+	 * The visit log holds a row per visit. The visits count and visited date of the bookmarks table are
+	 * derived from it by triggers: they are updated when a visit is appended or deleted, and the visits of
+	 * a record are deleted with it, or when its visits count is reset. The visits count of a record is the
+	 * sum of the visit counts of its rows: 1 for a visit, more for an imported history.
+	 */
+	private static final String VISIT_LOG_TABLE_CREATE = "CREATE TABLE " + VISIT_LOG_TABLE + " (" +
+		"_id INTEGER PRIMARY KEY, " +
+		LOG_BOOKMARK_ID + " INTEGER NOT NULL, " +
+		VISIT_DATE + " LONG NOT NULL, " +
+		VISIT_TRANSITION + " INTEGER NOT NULL DEFAULT " + TRANSITION_LINK + ", " +
+		LOG_VISIT_COUNT + " INTEGER NOT NULL DEFAULT 1);";
+	
+	private static final String[] VISIT_LOG_INDEXES_CREATE = new String[] {
+		"CREATE INDEX " + VISIT_LOG_TABLE + "_bookmark_index ON " + VISIT_LOG_TABLE + " (" + LOG_BOOKMARK_ID + ", " + VISIT_DATE + ");",
+		"CREATE INDEX " + VISIT_LOG_TABLE + "_date_index ON " + VISIT_LOG_TABLE + " (" + VISIT_DATE + ");" };
+	
+	private static final String[] VISIT_LOG_TRIGGERS_CREATE = new String[] {
+		"CREATE TRIGGER " + VISIT_LOG_TABLE + "_insert AFTER INSERT ON " + VISIT_LOG_TABLE + " WHEN new." + VISIT_TRANSITION + " != " + TRANSITION_IMPORT + " BEGIN " +
+			"UPDATE " + BOOKMARKS_TABLE + " SET " +
+				Columns.VISITS + " = IFNULL(" + Columns.VISITS + ", 0) + 1, " +
+				Columns.VISITED_DATE + " = MAX(IFNULL(" + Columns.VISITED_DATE + ", 0), new." + VISIT_DATE + "), " +
+				Columns.FRECENCY + " = " + Columns.FRECENCY + " + CASE new." + VISIT_TRANSITION +
+					" WHEN " + TRANSITION_TYPED + " THEN " + FRECENCY_TYPED_WEIGHT +
+					" WHEN " + TRANSITION_REDIRECT + " THEN " + FRECENCY_REDIRECT_WEIGHT +
+					" ELSE " + FRECENCY_LINK_WEIGHT + " END " +
+				"WHERE " + Columns._ID + " = new." + LOG_BOOKMARK_ID + "; " +
+			"END;",
+		"CREATE TRIGGER " + VISIT_LOG_TABLE + "_import AFTER INSERT ON " + VISIT_LOG_TABLE + " WHEN new." + VISIT_TRANSITION + " = " + TRANSITION_IMPORT + " BEGIN " +
+			"UPDATE " + BOOKMARKS_TABLE + " SET " +
+				Columns.FRECENCY + " = " + Columns.FRECENCY + " + " + getImportedFrecency("new." + VISIT_DATE) + " " +
+				"WHERE " + Columns._ID + " = new." + LOG_BOOKMARK_ID + "; " +
+			"END;",
+		getVisitLogDeleteTrigger("old." + LOG_VISIT_COUNT),
+		"CREATE TRIGGER " + VISIT_LOG_TABLE + "_reset AFTER UPDATE OF " + Columns.VISITS + " ON " + BOOKMARKS_TABLE +
+			" WHEN IFNULL(new." + Columns.VISITS + ", 0) = 0 AND IFNULL(old." + Columns.VISITS + ", 0) > 0 BEGIN " +
+			"DELETE FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " = new." + Columns._ID + "; " +
+			"END;",
+		"CREATE TRIGGER " + VISIT_LOG_TABLE + "_cleanup AFTER DELETE ON " + BOOKMARKS_TABLE + " BEGIN " +
+			"DELETE FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " = old." + Columns._ID + "; " +
+			"END;" };
+	
+	private static final String[] FRECENCY_TRIGGERS_CREATE = new String[] {
+		"CREATE TRIGGER " + BOOKMARKS_TABLE + "_frecency_insert AFTER INSERT ON " + BOOKMARKS_TABLE + " WHEN IFNULL(new." + Columns.BOOKMARK + ", 0) > 0 BEGIN " +
+			"UPDATE " + BOOKMARKS_TABLE + " SET " + Columns.FRECENCY + " = " + Columns.FRECENCY + " + " + FRECENCY_BOOKMARK_BONUS + " WHERE " + Columns._ID + " = new." + Columns._ID + "; " +
+			"END;",
+		"CREATE TRIGGER " + BOOKMARKS_TABLE + "_frecency_bookmark AFTER UPDATE OF " + Columns.BOOKMARK + " ON " + BOOKMARKS_TABLE +
+			" WHEN " + getBookmarkFrecency("new.") + " != " + getBookmarkFrecency("old.") + " BEGIN " +
+			"UPDATE " + BOOKMARKS_TABLE + " SET " + Columns.FRECENCY + " = MAX(" + Columns.FRECENCY + " + " + getBookmarkFrecency("new.") + " - " + getBookmarkFrecency("old.") + ", 0) " +
+			"WHERE " + Columns._ID + " = new." + Columns._ID + "; " +
+			"END;" };
+	
+	/**
+	 * Log an imported visit for the visited records whose visits are not all in the log, e.g. imported records,
+	 * standing for the missing visits.
+	 */
+	private static final String VISIT_LOG_SEED = "INSERT INTO " + VISIT_LOG_TABLE + " (" + LOG_BOOKMARK_ID + ", " + VISIT_DATE + ", " + VISIT_TRANSITION + ", " + LOG_VISIT_COUNT + ") " +
+		"SELECT " + Columns._ID + ", " + Columns.VISITED_DATE + ", " + TRANSITION_IMPORT + ", " + Columns.VISITS + " - logged FROM " +
+		"(SELECT " + Columns._ID + ", " + Columns.VISITED_DATE + ", " + Columns.VISITS + ", " +
+		"IFNULL((SELECT SUM(" + LOG_VISIT_COUNT + ") FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " = " + BOOKMARKS_TABLE + "." + Columns._ID + "), 0) AS logged " +
+		"FROM " + BOOKMARKS_TABLE + " WHERE " + Columns.VISITS + " > 0 AND " + Columns.VISITED_DATE + " IS NOT NULL) " +
+		"WHERE " + Columns.VISITS + " > logged;";
+	
+	/**
+	 * Search index of the titles and urls of records, folders excepted. The index rows ids are the records ids.
+	 */
+	private static final String SEARCH_TABLE_CREATE = "CREATE VIRTUAL TABLE " + SEARCH_TABLE + " USING fts3(" + Columns.TITLE + ", " + Columns.URL + ");";
+	
+	private static final String[] SEARCH_TRIGGERS_CREATE = new String[] {
+		"CREATE TRIGGER " + SEARCH_TABLE + "_insert AFTER INSERT ON " + BOOKMARKS_TABLE + " WHEN new." + Columns.IS_FOLDER + " = 0 BEGIN " +
+			"INSERT INTO " + SEARCH_TABLE + " (docid, " + Columns.TITLE + ", " + Columns.URL + ") VALUES (new." + Columns._ID + ", new." + Columns.TITLE + ", new." + Columns.URL + "); " +
+			"END;",
+		"CREATE TRIGGER " + SEARCH_TABLE + "_update AFTER UPDATE OF " + Columns.TITLE + ", " + Columns.URL + " ON " + BOOKMARKS_TABLE + " WHEN new." + Columns.IS_FOLDER + " = 0 BEGIN " +
+			"DELETE FROM " + SEARCH_TABLE + " WHERE docid = old." + Columns._ID + "; " +
+			"INSERT INTO " + SEARCH_TABLE + " (docid, " + Columns.TITLE + ", " + Columns.URL + ") VALUES (new." + Columns._ID + ", new." + Columns.TITLE + ", new." + Columns.URL + "); " +
+			"END;",
+		"CREATE TRIGGER " + SEARCH_TABLE + "_delete AFTER DELETE ON " + BOOKMARKS_TABLE + " WHEN old." + Columns.IS_FOLDER + " = 0 BEGIN " +
+			"DELETE FROM " + SEARCH_TABLE + " WHERE docid = old." + Columns._ID + "; " +
+			"END;" };
+	
+	/**
+	 * Words of urls found in almost every record, which would match the whole index.
+	 */
+	private static final String[] SEARCH_IGNORED_WORDS = new String[] { "http", "https", "www" };
+	
+	/**
+	 * Ids of a folder and of all its sub-folders. The folder id is the only argument.
+	 */
+	private static final String FOLDER_SUBTREE_SELECT = "SELECT " + TREE_DESCENDANT_ID + " FROM " + FOLDER_TREE_TABLE + " WHERE " + TREE_ANCESTOR_ID + " = ?";
+	
+	private static final String[] BOOKMARKS_INDEXES_CREATE = new String[] {
+		"CREATE UNIQUE INDEX IF NOT EXISTS " + BOOKMARKS_TABLE + "_url_unique_index ON " + BOOKMARKS_TABLE + " (" + Columns.URL + ");",
+		"CREATE INDEX IF NOT EXISTS " + BOOKMARKS_TABLE + "_visited_date_index ON " + BOOKMARKS_TABLE + " (" + Columns.VISITED_DATE + ");",
+		"CREATE INDEX IF NOT EXISTS " + BOOKMARKS_TABLE + "_parent_folder_index ON " + BOOKMARKS_TABLE + " (" +
+				Columns.PARENT_FOLDER_ID + ", " + Columns.BOOKMARK + ", " + Columns.IS_FOLDER + ");",
+		"CREATE INDEX IF NOT EXISTS " + BOOKMARKS_TABLE + "_folders_index ON " + BOOKMARKS_TABLE + " (" +
+				Columns.IS_FOLDER + ", " + Columns.PARENT_FOLDER_ID + ", " + Columns.TITLE + ");",
+		"CREATE INDEX IF NOT EXISTS " + BOOKMARKS_TABLE + "_title_index ON " + BOOKMARKS_TABLE + " (" + Columns.TITLE + " COLLATE NOCASE);",
+		"CREATE INDEX IF NOT EXISTS " + BOOKMARKS_TABLE + "_frecency_index ON " + BOOKMARKS_TABLE + " (" + Columns.FRECENCY + ");" };
+	
+	/**
+	 * Provider methods, for use with ContentResolver.call().
+	 */
+	public static final String METHOD_GET_JOURNAL_MODE = "getJournalMode";
+	public static final String METHOD_SET_WRITE_AHEAD_LOGGING = "setWriteAheadLogging";
+	
+	/**
+	 * Apply the daily frecency decay for the days elapsed since the last decay.
+	 */
+	public static final String METHOD_DECAY_FRECENCY = "decayFrecency";
+	
+	/**
+	 * Get the hits and misses counts of the compiled statements cache, since the provider creation.
+	 */
+	public static final String METHOD_GET_STATEMENT_CACHE_STATS = "getStatementCacheStats";
+	
+	/**
+	 * Apply the history retention limits given as extras: EXTRA_VISITED_BEFORE, EXTRA_MAX_HISTORY_RECORDS
+	 * and EXTRA_MAX_DATABASE_BYTES. Missing extras do not limit the history. Visits are deleted oldest first,
+	 * then the history records left without visits. Bookmarks are kept.
+	 */
+	public static final String METHOD_APPLY_RETENTION = "applyRetention";
+	
+	/**
+	 * Delete all bookmarks and folders.
+	 */
+	public static final String METHOD_CLEAR_BOOKMARKS = "clearBookmarks";
+	
+	/**
+	 * Move the thumbnails left in the database by the version 12 upgrade to the ThumbnailStore.
+	 * The thumbnails table is dropped once they are all moved.
+	 */
+	public static final String METHOD_MIGRATE_THUMBNAILS = "migrateThumbnails";
+	
+	/**
+	 * Extras of METHOD_APPLY_RETENTION.
+	 */
+	public static final String EXTRA_VISITED_BEFORE = "visitedBefore";
+	public static final String EXTRA_MAX_HISTORY_RECORDS = "maxHistoryRecords";
+	public static final String EXTRA_MAX_DATABASE_BYTES = "maxDatabaseBytes";
+	
+	/**
+	 * Keys of the bundles returned by call().
+	 */
+	public static final String RESULT_JOURNAL_MODE = "journalMode";
+	public static final String RESULT_COUNT = "count";
+	public static final String RESULT_CACHE_HITS = "cacheHits";
+	public static final String RESULT_CACHE_MISSES = "cacheMisses";
+	public static final String RESULT_DELETED_VISITS = "deletedVisits";
+	public static final String RESULT_DELETED_RECORDS = "deletedRecords";
+	public static final String RESULT_RECLAIMED_BYTES = "reclaimedBytes";
+	
+	/**
+	 * Connection tuning. The cache size is a memory budget, converted to pages at open time.
+	 */
+	private static final int DATABASE_CACHE_SIZE_BYTES = 1024 * 1024;
+	private static final int DATABASE_WAL_AUTOCHECKPOINT_PAGES = 200;
+	
+	/**
+	 * Maximum number of idle compiled statements kept for the hot writes.
+	 */
+	private static final int STATEMENT_CACHE_SIZE = 16;
+	
+	private static final String RECORD_VISIT_SELECT = "SELECT " + Columns._ID + " FROM " + BOOKMARKS_TABLE +
+			" WHERE " + Columns.URL + " = ?1 OR " + Columns.URL + " = ?2 ORDER BY " + Columns.URL + " = ?1 DESC LIMIT 1";
+	
+	private static final String RECORD_VISIT_UPDATE_TITLE = "UPDATE " + BOOKMARKS_TABLE + " SET " + Columns.TITLE + " = ?1 " +
+			"WHERE " + Columns._ID + " = ?2 AND IFNULL(" + Columns.BOOKMARK + ", 0) = 0 AND " + Columns.TITLE + " IS NOT ?1";
+	
+	/**
+	 * Retention deletes are done in chunks, each in its own transaction, so that the write lock
+	 * is released between chunks and visits can still be recorded.
+	 */
+	private static final int RETENTION_CHUNK_SIZE = 500;
+	
+	/**
+	 * Thumbnails moved to files per query, as their data is loaded in the cursor window.
+	 */
+	private static final int THUMBNAILS_MIGRATION_CHUNK_SIZE = 20;
+	
+	private static final String HISTORY_ORPHANS_WHERE = Columns.VISITED_DATE + " IS NULL AND IFNULL(" + Columns.VISITS + ", 0) = 0 AND " +
+			"IFNULL(" + Columns.BOOKMARK + ", 0) = 0 AND " + Columns.IS_FOLDER + " = 0";
+	
+	private static final String RETENTION_DELETE_VISITS_BEFORE = "DELETE FROM " + VISIT_LOG_TABLE + " WHERE " + Columns._ID + " IN " +
+			"(SELECT " + Columns._ID + " FROM " + VISIT_LOG_TABLE + " WHERE " + VISIT_DATE + " < ? ORDER BY " + VISIT_DATE + " LIMIT ?)";
+	
+	private static final String RETENTION_DELETE_OLDEST_VISITS = "DELETE FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " IN " +
+			"(SELECT " + Columns._ID + " FROM " + BOOKMARKS_TABLE + " WHERE " + Columns.VISITED_DATE + " IS NOT NULL ORDER BY " + Columns.VISITED_DATE + " LIMIT ?)";
+	
+	private static final String RETENTION_DELETE_ORPHANS = "DELETE FROM " + BOOKMARKS_TABLE + " WHERE " + Columns._ID + " IN " +
+			"(SELECT " + Columns._ID + " FROM " + BOOKMARKS_TABLE + " WHERE " + HISTORY_ORPHANS_WHERE + " LIMIT ?)";
+	
+	private static final String RETENTION_DELETE_BOOKMARKS = "DELETE FROM " + BOOKMARKS_TABLE + " WHERE " + Columns._ID + " IN " +
+			"(SELECT " + Columns._ID + " FROM " + BOOKMARKS_TABLE + " WHERE " + Columns.BOOKMARK + " = 1 OR " + Columns.IS_FOLDER + " = 1 LIMIT ?)";
+	
+	private static final String RETENTION_DELETE_FAVICON_HOSTS = "DELETE FROM " + FAVICON_HOSTS_TABLE + " WHERE " + FAVICON_HOST + " IN " +
+			"(SELECT " + FAVICON_HOST + " FROM " + FAVICON_HOSTS_TABLE + " h WHERE NOT EXISTS " +
+			"(SELECT 1 FROM " + FAVICONS_TABLE + " f WHERE f." + FAVICON_ID + " = h." + FAVICON_ID + ") LIMIT ?)";
+	
+	private static final String RECORD_VISIT_LOG = "INSERT INTO " + VISIT_LOG_TABLE + " (" + LOG_BOOKMARK_ID + ", " + VISIT_DATE + ", " + VISIT_TRANSITION + ") VALUES (?, ?, ?)";
+	
+	private static final String FAVICON_SELECT_BY_HASH = "SELECT " + FAVICON_ID + " FROM " + FAVICON_DATA_TABLE + " WHERE " + FAVICON_HASH + " = ?";
+	
+	private static final String FAVICON_INSERT = "INSERT INTO " + FAVICON_DATA_TABLE + " (" + FAVICON_HASH + ", " + Columns.FAVICON + ") VALUES (?, ?)";
+	
+	private static final String FAVICON_HOST_UPDATE = "UPDATE " + FAVICON_HOSTS_TABLE + " SET " + FAVICON_ID + " = ?1 " +
+			"WHERE " + FAVICON_HOST + " = ?2 AND " + FAVICON_ID + " != ?1";
+	
+	private static final String FAVICON_HOST_INSERT = "INSERT OR IGNORE INTO " + FAVICON_HOSTS_TABLE + " (" + FAVICON_ID + ", " + FAVICON_HOST + ") VALUES (?1, ?2)";
+	
+	private static final String FAVICON_FROM_HOST = "INSERT OR IGNORE INTO " + FAVICONS_TABLE + " (" + IMAGES_BOOKMARK_ID + ", " + FAVICON_ID + ") " +
+			"SELECT ?1, " + FAVICON_ID + " FROM " + FAVICON_HOSTS_TABLE + " WHERE " + FAVICON_HOST + " = ?2";
+	
+	/**
+	 * Changes scopes, as flags.
+	 */
+	private static final int SCOPE_HISTORY = 1;
+	private static final int SCOPE_BOOKMARKS = 2;
+	private static final int SCOPE_FOLDERS = 4;
+	private static final int SCOPE_FAVICONS = 8;
+	private static final int SCOPE_RECORDS = SCOPE_HISTORY | SCOPE_BOOKMARKS | SCOPE_FOLDERS;
+	
+	private static final String[] SCOPES_PATHS = new String[] { CHANGES_HISTORY, CHANGES_BOOKMARKS, CHANGES_FOLDERS, CHANGES_FAVICONS };
+	
+	/**
+	 * Changes notified within this delay are sent as a single notification.
+	 */
+	private static final long NOTIFICATIONS_COALESCING_DELAY = 100;
 	
 	private static final int BOOKMARKS = 1;
 	private static final int BOOKMARKS_BY_ID = 2;
+	private static final int VISITS = 3;
+	private static final int FOLDER_BY_ID = 4;
+	private static final int FOLDER_COUNT = 5;
+	private static final int HISTORY_BINS = 6;
+	private static final int SEARCH = 7;
 	
 	private static final UriMatcher sUriMatcher;
 	
 	private SQLiteDatabase mDb;
 	private DatabaseHelper mDbHelper;
+	private StatementCache mStatements;
+	
+	/**
+	 * Set while the current thread is applying a batch: changes scopes are then notified once, at the end of the batch.
+	 */
+	private final ThreadLocal<Integer> mBatchChangedScopes = new ThreadLocal<Integer>();
+	
+	/**
+	 * Changes scopes waiting for the end of the coalescing delay.
+	 */
+	private int mPendingScopes = 0;
+	private Handler mNotificationsHandler;
 	
-	private boolean mNotifyChanges;
+	private final Runnable mNotificationsRunnable = new Runnable() {
+		@Override
+		public void run() {
+			int scopes;
+			synchronized (mNotificationsRunnable) {
+				scopes = mPendingScopes;
+				mPendingScopes = 0;
+			}
+			
+			for (int i = 0; i < SCOPES_PATHS.length; i++) {
+				if ((scopes & (1 << i)) != 0) {
+					mContext.getContentResolver().notifyChange(Uri.withAppendedPath(CHANGES_URI, SCOPES_PATHS[i]), null);
+				}
+			}
+		}
+	};
 	
 	private Context mContext;
 	
@@ -86,6 +561,11 @@ public class BookmarksProvider extends ContentProvider {
 		sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 		sUriMatcher.addURI(AUTHORITY, BOOKMARKS_TABLE, BOOKMARKS);
 		sUriMatcher.addURI(AUTHORITY, BOOKMARKS_TABLE + "/#", BOOKMARKS_BY_ID);
+		sUriMatcher.addURI(AUTHORITY, "visits", VISITS);
+		sUriMatcher.addURI(AUTHORITY, "folders/#", FOLDER_BY_ID);
+		sUriMatcher.addURI(AUTHORITY, "folders/#/count", FOLDER_COUNT);
+		sUriMatcher.addURI(AUTHORITY, "history/bins", HISTORY_BINS);
+		sUriMatcher.addURI(AUTHORITY, "search", SEARCH);
 	}
 	
 	@Override
@@ -93,11 +573,89 @@ public class BookmarksProvider extends ContentProvider {
 		mContext = getContext();
 		mDbHelper = new DatabaseHelper(mContext);
 		mDb = mDbHelper.getWritableDatabase();
-		mNotifyChanges = true;
+		mStatements = new StatementCache(mDb, STATEMENT_CACHE_SIZE);
+		mNotificationsHandler = new Handler(Looper.getMainLooper());
+
+		setWriteAheadLogging(PreferenceManager.getDefaultSharedPreferences(mContext).getBoolean(Constants.TECHNICAL_PREFERENCE_DATABASE_WRITE_AHEAD_LOGGING, true));
 		
 		return true;
 	}
 	
+	@Override
+	public Bundle call(String method, String arg, Bundle extras) {
+		Bundle result = new Bundle();
+		
+		if (METHOD_GET_JOURNAL_MODE.equals(method)) {
+			enforceCallerPermission(getReadPermission());
+			
+			result.putString(RESULT_JOURNAL_MODE, getJournalMode());
+			
+		} else if (METHOD_SET_WRITE_AHEAD_LOGGING.equals(method)) {
+			enforceCallerPermission(getWritePermission());
+			
+			boolean enabled = Boolean.parseBoolean(arg);
+			
+			PreferenceManager.getDefaultSharedPreferences(mContext).edit().putBoolean(Constants.TECHNICAL_PREFERENCE_DATABASE_WRITE_AHEAD_LOGGING, enabled).commit();
+			setWriteAheadLogging(enabled);
+			
+			result.putString(RESULT_JOURNAL_MODE, getJournalMode());
+			
+		} else if (METHOD_DECAY_FRECENCY.equals(method)) {
+			enforceCallerPermission(getWritePermission());
+			
+			int count = decayFrecency();
+			if (count > 0) {
+				notifyChange(SCOPE_HISTORY | SCOPE_BOOKMARKS);
+			}
+			
+			result.putInt(RESULT_COUNT, count);
+			
+		} else if (METHOD_GET_STATEMENT_CACHE_STATS.equals(method)) {
+			enforceCallerPermission(getReadPermission());
+			
+			result.putLong(RESULT_CACHE_HITS, mStatements.getHits());
+			result.putLong(RESULT_CACHE_MISSES, mStatements.getMisses());
+			
+		} else if (METHOD_APPLY_RETENTION.equals(method)) {
+			enforceCallerPermission(getWritePermission());
+			
+			result = applyRetention(extras != null ? extras : new Bundle());
+			if ((result.getInt(RESULT_DELETED_VISITS) > 0) ||
+					(result.getInt(RESULT_DELETED_RECORDS) > 0)) {
+				notifyChange(SCOPE_HISTORY | SCOPE_BOOKMARKS);
+			}
+			
+		} else if (METHOD_CLEAR_BOOKMARKS.equals(method)) {
+			enforceCallerPermission(getWritePermission());
+			
+			int count = deleteInChunks(RETENTION_DELETE_BOOKMARKS);
+			deleteInChunks(RETENTION_DELETE_FAVICON_HOSTS);
+			
+			if (count > 0) {
+				notifyChange(SCOPE_HISTORY | SCOPE_BOOKMARKS | SCOPE_FOLDERS);
+			}
+			
+			result.putInt(RESULT_DELETED_RECORDS, count);
+			
+		} else if (METHOD_MIGRATE_THUMBNAILS.equals(method)) {
+			enforceCallerPermission(getWritePermission());
+			
+			result.putInt(RESULT_COUNT, migrateThumbnails());
+			
+		} else if (DatabaseMaintenance.METHOD_RUN_MAINTENANCE.equals(method)) {
+			enforceCallerPermission(getWritePermission());
+			
+			// A vacuum rebuilds the database, the compiled statements are dropped first.
+			mStatements.clear();
+			result = DatabaseMaintenance.run(mDb, extras);
+			
+		} else {
+			throw new IllegalArgumentException("Unknown method " + method);
+		}
+		
+		return result;
+	}
+	
 	@Override
 	public int delete(Uri uri, String whereClause, String[] whereArgs) {
 		int count = 0;
@@ -107,12 +665,24 @@ public class BookmarksProvider extends ContentProvider {
 			count = mDb.delete(BOOKMARKS_TABLE, whereClause, whereArgs);
 			break;
 			
+		case FOLDER_BY_ID:
+			count = deleteFolder(ContentUris.parseId(uri));
+			break;
+			
+		case VISITS:
+			count = deleteVisits(whereClause, whereArgs);
+			
+			if (count > 0) {
+				notifyChange(SCOPE_HISTORY);
+			}
+			
+			return count;
+			
 		default: throw new IllegalArgumentException("Unknown URI " + uri);
 		}		
 		
-		if ((mNotifyChanges) &&
-				(count > 0)) {
-			mContext.getContentResolver().notifyChange(uri, null);
+		if (count > 0) {
+			notifyChange(SCOPE_RECORDS);
 		}
 		
 		return count;
@@ -125,6 +695,16 @@ public class BookmarksProvider extends ContentProvider {
 			return CONTENT_TYPE;
 		case BOOKMARKS_BY_ID:
 			return CONTENT_ITEM_TYPE;
+		case VISITS:
+			return CONTENT_ITEM_TYPE;
+		case FOLDER_BY_ID:
+			return CONTENT_TYPE;
+		case FOLDER_COUNT:
+			return CONTENT_ITEM_TYPE;
+		case HISTORY_BINS:
+			return CONTENT_TYPE;
+		case SEARCH:
+			return CONTENT_TYPE;
 
 		default: throw new IllegalArgumentException("Unknown URI " + uri);
 		}
@@ -134,19 +714,45 @@ public class BookmarksProvider extends ContentProvider {
 	public Uri insert(Uri uri, ContentValues values) {
 		switch (sUriMatcher.match(uri)) {
 		case BOOKMARKS:
+			int scopes = getChangedScopes(values);
+			ContentValues images = extractImages(values);
+			
+			checkVisitedDate(values);
+			
 			long rowId = mDb.insert(BOOKMARKS_TABLE, null, values);
 			if (rowId > 0) {
-				Uri rowUri = ContentUris.withAppendedId(BOOKMARKS_URI, rowId);
+				if (images.size() > 0) {
+					updateImages(images, Columns._ID + " = ?", new String[] { Long.toString(rowId) });
+				}
 				
-				if (mNotifyChanges) {
-					mContext.getContentResolver().notifyChange(rowUri, null);
+				if (!images.containsKey(Columns.FAVICON)) {
+					setHostFavicon(rowId, values.getAsString(Columns.URL));
 				}
 				
+				Uri rowUri = ContentUris.withAppendedId(BOOKMARKS_URI, rowId);
+				
+				notifyChange(scopes);
+				
 				return rowUri;
 			}
 			
 			throw new SQLException("Failed to insert row into " + uri);
 			
+		case VISITS:
+			Integer transition = values.getAsInteger(VISIT_TRANSITION);
+			
+			long visitedId = recordVisit(values.getAsString(Columns.TITLE), values.getAsString(Columns.URL), values.getAsString(VISIT_ORIGINAL_URL),
+					transition != null ? transition : TRANSITION_LINK);
+			if (visitedId > 0) {
+				Uri visitedUri = ContentUris.withAppendedId(BOOKMARKS_URI, visitedId);
+				
+				notifyChange(SCOPE_HISTORY);
+				
+				return visitedUri;
+			}
+			
+			throw new SQLException("Failed to record visit into " + uri);
+			
 		default: throw new IllegalArgumentException("Unknown URI " + uri);
 		}
 	}
@@ -154,38 +760,95 @@ public class BookmarksProvider extends ContentProvider {
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 		SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+		String limit = null;
 		
 		switch (sUriMatcher.match(uri)) {
 		case BOOKMARKS:
-			qb.setTables(BOOKMARKS_TABLE);			
+			qb.setTables(getBookmarksTables(projection));
 			break;
 		case BOOKMARKS_BY_ID:
-			qb.setTables(BOOKMARKS_TABLE);
-			qb.appendWhere(Columns._ID + " = " + uri.getPathSegments().get(1));
-			break;		
+			qb.setTables(getBookmarksTables(projection));
+			qb.appendWhere(BOOKMARKS_TABLE + "." + Columns._ID + " = ?");
+			selectionArgs = DatabaseUtils.appendSelectionArgs(new String[] { uri.getPathSegments().get(1) }, selectionArgs);
+			break;
+		case FOLDER_BY_ID:
+			String folderById = Long.toString(ContentUris.parseId(uri));
+			
+			qb.setTables(getBookmarksTables(projection));
+			qb.appendWhere(Columns.PARENT_FOLDER_ID + " IN (" + FOLDER_SUBTREE_SELECT + ") OR " + BOOKMARKS_TABLE + "." + Columns._ID + " IN (" + FOLDER_SUBTREE_SELECT + ")");
+			selectionArgs = DatabaseUtils.appendSelectionArgs(new String[] { folderById, folderById }, selectionArgs);
+			break;
+		case FOLDER_COUNT:
+			String folderId = uri.getPathSegments().get(1);
+			
+			Cursor count = mDb.rawQuery("SELECT " +
+					"(SELECT COUNT(*) - 1 FROM " + FOLDER_TREE_TABLE + " WHERE " + TREE_ANCESTOR_ID + " = ?1) AS " + FOLDER_COUNT_FOLDERS + ", " +
+					"(SELECT COUNT(*) FROM " + BOOKMARKS_TABLE + " WHERE " + Columns.BOOKMARK + " > 0 AND " + Columns.PARENT_FOLDER_ID + " IN (" + FOLDER_SUBTREE_SELECT.replace("?", "?1") + ")) AS " + FOLDER_COUNT_BOOKMARKS,
+					new String[] { folderId });
+			
+			return setNotificationUris(count, uri);
+		case HISTORY_BINS:
+			return setNotificationUris(queryHistoryBins(selectionArgs), uri);
+		case SEARCH:
+			String match = getSearchMatch(uri.getQueryParameter(SEARCH_QUERY));
+			if (match == null) {
+				return new MatrixCursor(projection != null ? projection : new String[] { Columns._ID });
+			}
+			
+			qb.setTables(getBookmarksTables(projection));
+			qb.appendWhere(BOOKMARKS_TABLE + "." + Columns._ID + " IN (SELECT docid FROM " + SEARCH_TABLE + " WHERE " + SEARCH_TABLE + " MATCH ?)");
+			selectionArgs = DatabaseUtils.appendSelectionArgs(new String[] { match }, selectionArgs);
+			
+			String limitParameter = uri.getQueryParameter(SEARCH_LIMIT);
+			if (limitParameter != null) {
+				limit = Integer.toString(Integer.parseInt(limitParameter));
+			}
+			break;
 		default: throw new IllegalArgumentException("Unknown URI " + uri);
 		}
 		
-		Cursor c = qb.query(mDb, projection, selection, selectionArgs, null, null, sortOrder);
-		c.setNotificationUri(getContext().getContentResolver(), uri);
+		Cursor c = qb.query(mDb, projection, selection, selectionArgs, null, null, sortOrder, limit);
 		
-		return c;
+		return setNotificationUris(c, uri);
 	}
 
 	@Override
 	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
 		int count = 0;
+		int scopes;
 		switch (sUriMatcher.match(uri)) {
 		case BOOKMARKS:
-			count = mDb.update(BOOKMARKS_TABLE, values, selection, selectionArgs);
+			scopes = getChangedScopes(values);
+			ContentValues images = extractImages(values);
+			
+			if (images.size() > 0) {
+				mDb.beginTransaction();
+				try {
+					count = updateImages(images, selection, selectionArgs);
+					
+					if (values.size() > 0) {
+						count = Math.max(count, updateBookmarks(values, selection, selectionArgs));
+					}
+					
+					mDb.setTransactionSuccessful();
+				} finally {
+					mDb.endTransaction();
+				}
+			} else {
+				count = updateBookmarks(values, selection, selectionArgs);
+			}
+			break;
+			
+		case FOLDER_BY_ID:
+			scopes = getChangedScopes(values);
+			count = updateFolder(ContentUris.parseId(uri), values);
 			break;
 			
 		default: throw new IllegalArgumentException("Unknown URI " + uri);
 		}
 						
-		if ((mNotifyChanges) &&
-				(count > 0)) {
-			mContext.getContentResolver().notifyChange(uri, null);
+		if (count > 0) {
+			notifyChange(scopes);
 		}
 		
 		return count;
@@ -201,8 +864,9 @@ public class BookmarksProvider extends ContentProvider {
 			
 			try {
 				
+				// Urls are unique. If an imported url is already present, the existing record is merged with the imported one.
 				SQLiteStatement insert = mDb.compileStatement(
-						"INSERT INTO " + BOOKMARKS_TABLE + "(" +
+						"INSERT OR IGNORE INTO " + BOOKMARKS_TABLE + "(" +
 						Columns.TITLE + ", " + 
 						Columns.URL + ", " +
 						Columns.VISITS + ", " + 
@@ -213,6 +877,15 @@ public class BookmarksProvider extends ContentProvider {
 						Columns.PARENT_FOLDER_ID + 
 						") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
 				
+				SQLiteStatement merge = mDb.compileStatement(
+						"UPDATE " + BOOKMARKS_TABLE + " SET " +
+						Columns.VISITS + " = MAX(IFNULL(" + Columns.VISITS + ", 0), IFNULL(CAST(?1 AS INTEGER), 0)), " +
+						Columns.VISITED_DATE + " = NULLIF(MAX(IFNULL(" + Columns.VISITED_DATE + ", 0), IFNULL(CAST(?2 AS INTEGER), 0)), 0), " +
+						Columns.CREATION_DATE + " = CASE WHEN IFNULL(" + Columns.BOOKMARK + ", 0) = 0 AND CAST(?4 AS INTEGER) = 1 THEN CAST(?3 AS INTEGER) ELSE " + Columns.CREATION_DATE + " END, " +
+						Columns.PARENT_FOLDER_ID + " = CASE WHEN IFNULL(" + Columns.BOOKMARK + ", 0) = 0 AND CAST(?4 AS INTEGER) = 1 THEN CAST(?5 AS INTEGER) ELSE " + Columns.PARENT_FOLDER_ID + " END, " +
+						Columns.BOOKMARK + " = MAX(IFNULL(" + Columns.BOOKMARK + ", 0), CAST(?4 AS INTEGER)) " +
+						"WHERE " + Columns.URL + " = ?6");
+				
 				for (ContentValues value : values) {
 					
 					String title = value.getAsString(Columns.TITLE);					
@@ -227,6 +900,12 @@ public class BookmarksProvider extends ContentProvider {
 						String isFolder = value.getAsString(Columns.IS_FOLDER);
 						String parentFolderId = value.getAsString(Columns.PARENT_FOLDER_ID);
 						
+						if ((TextUtils.isEmpty(visits)) ||
+								("0".equals(visits))) {
+							// See checkVisitedDate().
+							visitedDate = null;
+						}
+						
 						insert.bindString(1, title);
 						
 						if (!TextUtils.isEmpty(url)) {
@@ -271,13 +950,28 @@ public class BookmarksProvider extends ContentProvider {
 							insert.bindString(8, "-1");
 						}
 
-						insert.execute();
+						if ((insert.executeInsert() == -1) &&
+								(!TextUtils.isEmpty(url))) {
+							bindStringOrNull(merge, 1, visits);
+							bindStringOrNull(merge, 2, visitedDate);
+							bindStringOrNull(merge, 3, creationDate);
+							merge.bindString(4, !TextUtils.isEmpty(bookmark) ? bookmark : "0");
+							merge.bindString(5, !TextUtils.isEmpty(parentFolderId) ? parentFolderId : "-1");
+							merge.bindString(6, url);
+							
+							merge.execute();
+						}
 					}
 				}
 				
+				insert.close();
+				merge.close();
+				
+				mDb.execSQL(VISIT_LOG_SEED);
+				
 				mDb.setTransactionSuccessful();
 				
-				mContext.getContentResolver().notifyChange(uri, null);
+				notifyChange(SCOPE_RECORDS);
 				
 				numInserted = values.length;
 			} finally {
@@ -289,30 +983,1413 @@ public class BookmarksProvider extends ContentProvider {
 		}
 	}
 	
-	public void setNotifyChanges(boolean value) {
-		mNotifyChanges = value;
+	/**
+	 * Apply a batch of operations in a single transaction. Observers are notified once, when the batch has succeeded.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+		ContentProviderResult[] results;
+		int scopes;
+		
+		mBatchChangedScopes.set(0);
+		mDb.beginTransaction();
+		try {
+			results = super.applyBatch(operations);
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+			
+			scopes = mBatchChangedScopes.get();
+			mBatchChangedScopes.set(null);
+		}
+		
+		notifyChange(scopes);
+		
+		return results;
 	}
 	
-	private static class DatabaseHelper extends SQLiteOpenHelper {
-
-		public DatabaseHelper(Context context) {
-			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	/**
+	 * Notify observers of changes. Within a batch, the notification is delayed until the end of the batch.
+	 * Otherwise, it is sent after the coalescing delay, together with the other changes notified meanwhile.
+	 * @param scopes The changed scopes.
+	 */
+	private void notifyChange(int scopes) {
+		if (scopes == 0) {
+			return;
 		}
-
-		@Override
-		public void onCreate(SQLiteDatabase db) {
-			db.execSQL(BOOKMARKS_TABLE_CREATE);
+		
+		Integer batchScopes = mBatchChangedScopes.get();
+		if (batchScopes != null) {
+			mBatchChangedScopes.set(batchScopes | scopes);
+		} else {
+			synchronized (mNotificationsRunnable) {
+				if (mPendingScopes == 0) {
+					mNotificationsHandler.postDelayed(mNotificationsRunnable, NOTIFICATIONS_COALESCING_DELAY);
+				}
+				
+				mPendingScopes |= scopes;
+			}
 		}
-
-		@Override
-		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			switch (oldVersion) {
-			case 1: 
-				db.execSQL("ALTER TABLE " + BOOKMARKS_TABLE + " ADD " + Columns.IS_FOLDER + " INTEGER NOT NULL DEFAULT 0;");
-				db.execSQL("ALTER TABLE " + BOOKMARKS_TABLE + " ADD " + Columns.PARENT_FOLDER_ID + " INTEGER NOT NULL DEFAULT -1;");
-				break;
-			default: break;
+	}
+	
+	/**
+	 * Only visited records have a visited date, so that history can be read from the visited date index alone.
+	 * @param values The values of a new record.
+	 */
+	private static void checkVisitedDate(ContentValues values) {
+		Integer visits = values.getAsInteger(Columns.VISITS);
+		
+		if ((values.containsKey(Columns.VISITED_DATE)) &&
+				((visits == null) || (visits == 0))) {
+			values.putNull(Columns.VISITED_DATE);
+		}
+	}
+	
+	/**
+	 * Get the scopes affected by writing the given values.
+	 * @param values The written values.
+	 * @return The changed scopes.
+	 */
+	private static int getChangedScopes(ContentValues values) {
+		Integer isFolder = values.getAsInteger(Columns.IS_FOLDER);
+		if ((isFolder != null) &&
+				(isFolder == 1)) {
+			return SCOPE_FOLDERS | SCOPE_BOOKMARKS;
+		}
+		
+		int scopes = 0;
+		
+		for (String key : values.keySet()) {
+			if (Columns.VISITS.equals(key) ||
+					Columns.VISITED_DATE.equals(key)) {
+				scopes |= SCOPE_HISTORY;
+			} else if (Columns.PARENT_FOLDER_ID.equals(key)) {
+				scopes |= SCOPE_BOOKMARKS | SCOPE_FOLDERS;
+			} else if (Columns.FAVICON.equals(key)) {
+				scopes |= SCOPE_FAVICONS;
+			} else {
+				// Title, url, bookmark flag and creation date are displayed both in history and bookmarks.
+				scopes |= SCOPE_HISTORY | SCOPE_BOOKMARKS;
 			}
-		}		
+		}
+		
+		return scopes;
+	}
+	
+	/**
+	 * Set the uris on which a cursor is notified: the scopes given in the query uri, or any change.
+	 * @param c The cursor.
+	 * @param uri The query uri.
+	 * @return The cursor to return to the client.
+	 */
+	private Cursor setNotificationUris(Cursor c, Uri uri) {
+		String observe = uri.getQueryParameter(QUERY_PARAMETER_OBSERVE);
+		
+		if (TextUtils.isEmpty(observe)) {
+			c.setNotificationUri(mContext.getContentResolver(), CHANGES_URI);
+			return c;
+		}
+		
+		String[] scopes = observe.split(",");
+		if (scopes.length == 1) {
+			c.setNotificationUri(mContext.getContentResolver(), Uri.withAppendedPath(CHANGES_URI, scopes[0]));
+			return c;
+		}
+		
+		Uri[] notificationUris = new Uri[scopes.length];
+		for (int i = 0; i < scopes.length; i++) {
+			notificationUris[i] = Uri.withAppendedPath(CHANGES_URI, scopes[i]);
+		}
+		
+		return new MultipleNotificationsCursor(c, mContext.getContentResolver(), notificationUris);
+	}
+	
+	/**
+	 * Build a query uri whose cursors are only notified of changes in the given scopes.
+	 * @param uri The query uri.
+	 * @param scopes The scopes to observe, from the CHANGES_* constants.
+	 * @return The query uri.
+	 */
+	public static Uri getObservingUri(Uri uri, String... scopes) {
+		return uri.buildUpon().appendQueryParameter(QUERY_PARAMETER_OBSERVE, TextUtils.join(",", scopes)).build();
+	}
+	
+	/**
+	 * Count history records by date bins, in a single pass on the visited date index.
+	 * @param boundaries The bins lower boundaries, exclusive, from the most recent bin.
+	 * @return A cursor with a row for each non-empty bin.
+	 */
+	private Cursor queryHistoryBins(String[] boundaries) {
+		String bin;
+		
+		if ((boundaries != null) &&
+				(boundaries.length > 0)) {
+			StringBuilder cases = new StringBuilder("CASE");
+			for (int i = 0; i < boundaries.length; i++) {
+				cases.append(" WHEN " + Columns.VISITED_DATE + " > ?" + (i + 1) + " THEN " + i);
+			}
+			cases.append(" ELSE " + boundaries.length + " END");
+			
+			bin = cases.toString();
+		} else {
+			bin = "0";
+		}
+		
+		return mDb.rawQuery("SELECT " + bin + " AS " + HISTORY_BIN + ", COUNT(*) AS " + HISTORY_BIN_COUNT + " FROM " + BOOKMARKS_TABLE +
+				" WHERE " + Columns.VISITED_DATE + " IS NOT NULL GROUP BY " + HISTORY_BIN + " ORDER BY " + HISTORY_BIN,
+				boundaries);
+	}
+	
+	/**
+	 * Get the frecency bonus of a bookmark, as an SQL expression.
+	 * @param prefix The prefix of the bookmark column, e.g. "new.", or an empty string.
+	 * @return The expression.
+	 */
+	private static String getBookmarkFrecency(String prefix) {
+		return "((IFNULL(" + prefix + Columns.BOOKMARK + ", 0) > 0) * " + FRECENCY_BOOKMARK_BONUS + ")";
+	}
+	
+	/**
+	 * Get the statement creating the visit log delete trigger.
+	 * @param deletedVisits The number of visits of the deleted row, as an SQL expression.
+	 * @return The statement.
+	 */
+	private static String getVisitLogDeleteTrigger(String deletedVisits) {
+		return "CREATE TRIGGER " + VISIT_LOG_TABLE + "_delete AFTER DELETE ON " + VISIT_LOG_TABLE + " BEGIN " +
+			"UPDATE " + BOOKMARKS_TABLE + " SET " +
+				Columns.VISITS + " = CASE WHEN EXISTS (SELECT 1 FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " = old." + LOG_BOOKMARK_ID + ") " +
+					"THEN MAX(IFNULL(" + Columns.VISITS + ", 0) - " + deletedVisits + ", 1) ELSE 0 END, " +
+				Columns.VISITED_DATE + " = (SELECT MAX(" + VISIT_DATE + ") FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " = old." + LOG_BOOKMARK_ID + "), " +
+				Columns.FRECENCY + " = CASE WHEN EXISTS (SELECT 1 FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " = old." + LOG_BOOKMARK_ID + ") " +
+					"THEN " + Columns.FRECENCY + " ELSE " + getBookmarkFrecency("") + " END " +
+				"WHERE " + Columns._ID + " = old." + LOG_BOOKMARK_ID + "; " +
+			"END;";
+	}
+	
+	/**
+	 * Get the frecency of the visits of an imported record, as an SQL expression. The age of its last visit
+	 * stands for the age of all its visits.
+	 * @param lastVisitDate The last visit date expression.
+	 * @return The expression.
+	 */
+	private static String getImportedFrecency(String lastVisitDate) {
+		String age = "(strftime('%s', 'now') * 1000 - " + lastVisitDate + ")";
+		
+		return "(MIN(IFNULL(" + Columns.VISITS + ", 0), " + FRECENCY_IMPORTED_VISITS_MAX + ") * CASE" +
+				" WHEN " + age + " < " + (4 * DAY_IN_MILLISECONDS) + " THEN " + FRECENCY_LINK_WEIGHT +
+				" WHEN " + age + " < " + (14 * DAY_IN_MILLISECONDS) + " THEN " + (FRECENCY_LINK_WEIGHT * 7 / 10) +
+				" WHEN " + age + " < " + (31 * DAY_IN_MILLISECONDS) + " THEN " + (FRECENCY_LINK_WEIGHT / 2) +
+				" WHEN " + age + " < " + (90 * DAY_IN_MILLISECONDS) + " THEN " + (FRECENCY_LINK_WEIGHT * 3 / 10) +
+				" ELSE " + (FRECENCY_LINK_WEIGHT / 10) + " END)";
+	}
+	
+	/**
+	 * Decay the visits part of the records frecency, once for each day elapsed since the last decay.
+	 * The bookmark bonus is kept.
+	 * @return The number of updated records.
+	 */
+	private int decayFrecency() {
+		SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+		
+		long now = System.currentTimeMillis();
+		long lastDecay = preferences.getLong(Constants.TECHNICAL_PREFERENCE_LAST_FRECENCY_DECAY, -1);
+		
+		if (lastDecay < 0) {
+			preferences.edit().putLong(Constants.TECHNICAL_PREFERENCE_LAST_FRECENCY_DECAY, now).commit();
+			return 0;
+		}
+		
+		long days = (now - lastDecay) / DAY_IN_MILLISECONDS;
+		if (days < 1) {
+			return 0;
+		}
+		
+		int count;
+		
+		SQLiteStatement decay = mDb.compileStatement("UPDATE " + BOOKMARKS_TABLE + " SET " +
+				Columns.FRECENCY + " = CAST((" + Columns.FRECENCY + " - " + getBookmarkFrecency("") + ") * ? AS INTEGER) + " + getBookmarkFrecency("") + " " +
+				"WHERE " + Columns.FRECENCY + " > " + getBookmarkFrecency(""));
+		try {
+			decay.bindDouble(1, Math.pow(FRECENCY_DAILY_DECAY, days));
+			count = decay.executeUpdateDelete();
+		} finally {
+			decay.close();
+		}
+		
+		preferences.edit().putLong(Constants.TECHNICAL_PREFERENCE_LAST_FRECENCY_DECAY, lastDecay + days * DAY_IN_MILLISECONDS).commit();
+		
+		return count;
+	}
+	
+	/**
+	 * Build the full-text match expression of a search text. Each word of the text is a prefix query,
+	 * quoted so that it is never read as an operator. Urls schemes and common words are ignored.
+	 * @param query The search text.
+	 * @return The match expression, or null if there is nothing to search.
+	 */
+	private static String getSearchMatch(String query) {
+		if (query == null) {
+			return null;
+		}
+		
+		// Split on the separators of the fts3 simple tokenizer: ascii characters which are not letters or digits.
+		String[] words = query.replaceFirst("^\\s*[a-zA-Z]+://", "").split("[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+");
+		StringBuilder match = new StringBuilder();
+		
+		for (String word : words) {
+			if ((word.length() > 0) &&
+					(!isSearchIgnoredWord(word))) {
+				if (match.length() > 0) {
+					match.append(' ');
+				}
+				
+				match.append('"').append(word).append("*\"");
+			}
+		}
+		
+		return match.length() > 0 ? match.toString() : null;
+	}
+	
+	private static boolean isSearchIgnoredWord(String word) {
+		for (String ignored : SEARCH_IGNORED_WORDS) {
+			if (ignored.equalsIgnoreCase(word)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Delete a folder and its sub-folders in a single transaction. Their bookmarks which have been visited are kept
+	 * in history, the others are deleted.
+	 * @param folderId The folder id.
+	 * @return The number of deleted or updated records.
+	 */
+	private int deleteFolder(long folderId) {
+		String[] args = new String[] { Long.toString(folderId) };
+		String contentSelection = Columns.PARENT_FOLDER_ID + " IN (" + FOLDER_SUBTREE_SELECT + ") AND " + Columns.BOOKMARK + " > 0";
+		
+		int count = 0;
+		
+		mDb.beginTransaction();
+		try {
+			ContentValues values = new ContentValues();
+			values.put(Columns.BOOKMARK, 0);
+			values.put(Columns.PARENT_FOLDER_ID, -1);
+			values.putNull(Columns.CREATION_DATE);
+			
+			count += mDb.update(BOOKMARKS_TABLE, values, contentSelection + " AND " + Columns.VISITS + " > 0", args);
+			count += mDb.delete(BOOKMARKS_TABLE, contentSelection, args);
+			count += mDb.delete(BOOKMARKS_TABLE, Columns._ID + " IN (" + FOLDER_SUBTREE_SELECT + ")", args);
+			
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Update a folder. If the values contain a parent folder id, the folder is moved with its whole subtree.
+	 * @param folderId The folder id.
+	 * @param values The new values.
+	 * @return The number of updated folders.
+	 */
+	private int updateFolder(long folderId, ContentValues values) {
+		Long newParentId = values.getAsLong(Columns.PARENT_FOLDER_ID);
+		
+		if ((newParentId != null) &&
+				(newParentId != -1)) {
+			long cycles = DatabaseUtils.longForQuery(mDb,
+					"SELECT COUNT(*) FROM " + FOLDER_TREE_TABLE + " WHERE " + TREE_ANCESTOR_ID + " = ? AND " + TREE_DESCENDANT_ID + " = ?",
+					new String[] { Long.toString(folderId), Long.toString(newParentId) });
+			
+			if (cycles > 0) {
+				throw new IllegalArgumentException("Cannot move folder " + folderId + " into itself or one of its sub-folders");
+			}
+		}
+		
+		return mDb.update(BOOKMARKS_TABLE, values, Columns._ID + " = ? AND " + Columns.IS_FOLDER + " = 1", new String[] { Long.toString(folderId) });
+	}
+	
+	/**
+	 * Record a visit in a single transaction: append it to the visit log, which updates the visits count
+	 * and the visit date of the visited record, creating a history record if needed. The title of bookmarks
+	 * is kept, as it may have been chosen by the user.
+	 * @param title The page title.
+	 * @param url The page url.
+	 * @param originalUrl The page original url, may be null.
+	 * @param transition The visit transition. A link to another url than the original one is recorded as a redirect.
+	 * @return The id of the visited record, or -1.
+	 */
+	private long recordVisit(String title, String url, String originalUrl, int transition) {
+		if (TextUtils.isEmpty(url)) {
+			return -1;
+		}
+		
+		if (originalUrl == null) {
+			originalUrl = url;
+		} else if ((transition == TRANSITION_LINK) &&
+				(!originalUrl.equals(url))) {
+			transition = TRANSITION_REDIRECT;
+		}
+		
+		long id = -1;
+		
+		mDb.beginTransaction();
+		try {
+			SQLiteStatement select = mStatements.acquire(RECORD_VISIT_SELECT);
+			try {
+				select.bindString(1, url);
+				select.bindString(2, originalUrl);
+				id = select.simpleQueryForLong();
+			} catch (SQLiteDoneException e) {
+				id = -1;
+			} finally {
+				mStatements.release(RECORD_VISIT_SELECT, select);
+			}
+			
+			if (id != -1) {
+				if (!TextUtils.isEmpty(title)) {
+					SQLiteStatement update = mStatements.acquire(RECORD_VISIT_UPDATE_TITLE);
+					try {
+						update.bindString(1, title);
+						update.bindLong(2, id);
+						update.execute();
+					} finally {
+						mStatements.release(RECORD_VISIT_UPDATE_TITLE, update);
+					}
+				}
+			} else {
+				ContentValues values = new ContentValues();
+				values.put(Columns.TITLE, title);
+				values.put(Columns.URL, url);
+				values.put(Columns.VISITS, 0);
+				values.put(Columns.BOOKMARK, 0);
+				
+				id = mDb.insert(BOOKMARKS_TABLE, null, values);
+				
+				if (id != -1) {
+					setHostFavicon(id, url);
+				}
+			}
+			
+			if (id != -1) {
+				SQLiteStatement log = mStatements.acquire(RECORD_VISIT_LOG);
+				try {
+					log.bindLong(1, id);
+					log.bindLong(2, System.currentTimeMillis());
+					log.bindLong(3, transition);
+					log.executeInsert();
+				} finally {
+					mStatements.release(RECORD_VISIT_LOG, log);
+				}
+			}
+			
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		
+		return id;
+	}
+	
+	/**
+	 * Delete visits from the visit log, then the history records left without visits.
+	 * @param selection The selection on the visit log.
+	 * @param selectionArgs The selection arguments.
+	 * @return The number of deleted visits.
+	 */
+	private int deleteVisits(String selection, String[] selectionArgs) {
+		int count = 0;
+		
+		mDb.beginTransaction();
+		try {
+			count = mDb.delete(VISIT_LOG_TABLE, selection, selectionArgs);
+			
+			if (count > 0) {
+				mDb.delete(BOOKMARKS_TABLE, HISTORY_ORPHANS_WHERE, null);
+			}
+			
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Apply the history retention limits.
+	 * @param extras The limits, see METHOD_APPLY_RETENTION.
+	 * @return The numbers of deleted visits and records, and the number of reclaimed bytes.
+	 */
+	private Bundle applyRetention(Bundle extras) {
+		long usedBytes = getUsedBytes();
+		int deletedVisits = 0;
+		int deletedRecords = 0;
+		
+		if (extras.containsKey(EXTRA_VISITED_BEFORE)) {
+			deletedVisits += deleteInChunks(RETENTION_DELETE_VISITS_BEFORE, extras.getLong(EXTRA_VISITED_BEFORE));
+		}
+		
+		if (extras.containsKey(EXTRA_MAX_HISTORY_RECORDS)) {
+			int maxRecords = extras.getInt(EXTRA_MAX_HISTORY_RECORDS);
+			
+			long excess = countHistoryRecords() - maxRecords;
+			while (excess > 0) {
+				int count = executeChunk(RETENTION_DELETE_OLDEST_VISITS, Math.min(excess, RETENTION_CHUNK_SIZE));
+				if (count == 0) {
+					break;
+				}
+				
+				deletedVisits += count;
+				excess = countHistoryRecords() - maxRecords;
+			}
+		}
+		
+		deletedRecords += deleteInChunks(RETENTION_DELETE_ORPHANS);
+		
+		if (extras.containsKey(EXTRA_MAX_DATABASE_BYTES)) {
+			long maxBytes = extras.getLong(EXTRA_MAX_DATABASE_BYTES);
+			
+			// Records images are only freed with the records, so orphans are deleted before measuring again.
+			while (getUsedBytes() > maxBytes) {
+				int count = executeChunk(RETENTION_DELETE_OLDEST_VISITS, RETENTION_CHUNK_SIZE);
+				if (count == 0) {
+					break;
+				}
+				
+				deletedVisits += count;
+				deletedRecords += deleteInChunks(RETENTION_DELETE_ORPHANS);
+			}
+		}
+		
+		// Hosts whose favicon is no longer used by any record are forgotten with the history.
+		deleteInChunks(RETENTION_DELETE_FAVICON_HOSTS);
+		
+		Bundle result = new Bundle();
+		result.putInt(RESULT_DELETED_VISITS, deletedVisits);
+		result.putInt(RESULT_DELETED_RECORDS, deletedRecords);
+		result.putLong(RESULT_RECLAIMED_BYTES, Math.max(usedBytes - getUsedBytes(), 0));
+		
+		return result;
+	}
+	
+	/**
+	 * Move the thumbnails left in the database by the version 12 upgrade to the ThumbnailStore, by chunks.
+	 * Only the bookmarks thumbnails are moved, as they are the only ones displayed, and only when the store
+	 * has no newer capture. Moved rows are deleted, and the thumbnails table is dropped once empty.
+	 * @return The number of moved thumbnails.
+	 */
+	private int migrateThumbnails() {
+		if (DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?", new String[] { THUMBNAILS_TABLE }) == 0) {
+			return 0;
+		}
+		
+		ThumbnailStore store = ThumbnailStore.getInstance(mContext);
+		
+		int total = 0;
+		int count;
+		do {
+			count = 0;
+			StringBuilder ids = new StringBuilder();
+			
+			Cursor c = mDb.rawQuery("SELECT t." + IMAGES_BOOKMARK_ID + ", CASE WHEN b." + Columns.BOOKMARK + " = 1 THEN t." + THUMBNAIL + " END" +
+					" FROM " + THUMBNAILS_TABLE + " t" +
+					" LEFT JOIN " + BOOKMARKS_TABLE + " b ON b." + Columns._ID + " = t." + IMAGES_BOOKMARK_ID +
+					" LIMIT " + THUMBNAILS_MIGRATION_CHUNK_SIZE + ";", null);
+			try {
+				while (c.moveToNext()) {
+					long id = c.getLong(0);
+					byte[] data = c.getBlob(1);
+					
+					if ((data != null) &&
+							(store.getThumbnailDate(id) == 0)) {
+						Bitmap thumbnail = BitmapFactory.decodeByteArray(data, 0, data.length);
+						if (thumbnail != null) {
+							store.putThumbnail(id, thumbnail);
+							thumbnail.recycle();
+							total++;
+						}
+					}
+					
+					ids.append(count > 0 ? ", " : "").append(id);
+					count++;
+				}
+			} finally {
+				c.close();
+			}
+			
+			if (count > 0) {
+				mDb.execSQL("DELETE FROM " + THUMBNAILS_TABLE + " WHERE " + IMAGES_BOOKMARK_ID + " IN (" + ids + ");");
+			}
+		} while (count == THUMBNAILS_MIGRATION_CHUNK_SIZE);
+		
+		mDb.execSQL("DROP TABLE " + THUMBNAILS_TABLE + ";");
+		
+		if (total > 0) {
+			store.notifyChange();
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * Run a chunked delete statement until it deletes nothing.
+	 * @param sql The delete statement. Its last argument is the chunk size.
+	 * @param args The other arguments.
+	 * @return The total number of deleted rows.
+	 */
+	private int deleteInChunks(String sql, long... args) {
+		long[] chunkArgs = new long[args.length + 1];
+		System.arraycopy(args, 0, chunkArgs, 0, args.length);
+		chunkArgs[args.length] = RETENTION_CHUNK_SIZE;
+		
+		int total = 0;
+		int count;
+		do {
+			count = executeChunk(sql, chunkArgs);
+			total += count;
+		} while (count > 0);
+		
+		return total;
+	}
+	
+	/**
+	 * Run one chunk of a retention delete, in its own transaction.
+	 * @param sql The delete statement.
+	 * @param args The statement arguments.
+	 * @return The number of deleted rows, not counting the rows deleted by triggers.
+	 */
+	private int executeChunk(String sql, long... args) {
+		SQLiteStatement statement = mStatements.acquire(sql);
+		
+		mDb.beginTransaction();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				statement.bindLong(i + 1, args[i]);
+			}
+			
+			int count = statement.executeUpdateDelete();
+			
+			mDb.setTransactionSuccessful();
+			
+			return count;
+		} finally {
+			mDb.endTransaction();
+			mStatements.release(sql, statement);
+		}
+	}
+	
+	private long countHistoryRecords() {
+		return DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + BOOKMARKS_TABLE + " WHERE " + Columns.VISITED_DATE + " IS NOT NULL", null);
+	}
+	
+	/**
+	 * Get the size of the database pages in use. Freed pages stay in the file until it is vacuumed,
+	 * so the file size does not reflect deletes.
+	 * @return The used size, in bytes.
+	 */
+	private long getUsedBytes() {
+		try {
+			long pageCount = Long.parseLong(DatabaseMaintenance.executePragma(mDb, "page_count"));
+			long freePages = Long.parseLong(DatabaseMaintenance.executePragma(mDb, "freelist_count"));
+			
+			return (pageCount - freePages) * mDb.getPageSize();
+		} catch (NumberFormatException e) {
+			e.printStackTrace();
+			Log.w("BookmarksProvider", "Unable to get database size: " + e.getMessage());
+			return 0;
+		}
+	}
+	
+	/**
+	 * Update the bookmarks table through a cached statement. The statement SQL only depends on the updated
+	 * columns and on the selection, so callers using selection arguments share the same statement.
+	 * @param values The new values.
+	 * @param selection The selection on the bookmarks table.
+	 * @param selectionArgs The selection arguments.
+	 * @return The number of updated records.
+	 */
+	private int updateBookmarks(ContentValues values, String selection, String[] selectionArgs) {
+		if (values.size() == 0) {
+			throw new IllegalArgumentException("Empty values");
+		}
+		
+		ArrayList<String> columns = new ArrayList<String>(values.keySet());
+		Collections.sort(columns);
+		
+		StringBuilder sql = new StringBuilder("UPDATE " + BOOKMARKS_TABLE + " SET ");
+		for (int i = 0; i < columns.size(); i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			
+			sql.append(columns.get(i)).append(" = ?");
+		}
+		
+		if (!TextUtils.isEmpty(selection)) {
+			sql.append(" WHERE ").append(selection);
+		}
+		
+		String statementSql = sql.toString();
+		SQLiteStatement statement = mStatements.acquire(statementSql);
+		try {
+			for (int i = 0; i < columns.size(); i++) {
+				DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns.get(i)));
+			}
+			
+			if (selectionArgs != null) {
+				for (int i = 0; i < selectionArgs.length; i++) {
+					statement.bindString(columns.size() + i + 1, selectionArgs[i]);
+				}
+			}
+			
+			return statement.executeUpdateDelete();
+		} finally {
+			mStatements.release(statementSql, statement);
+		}
+	}
+	
+	private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+		if (!TextUtils.isEmpty(value)) {
+			statement.bindString(index, value);
+		} else {
+			statement.bindNull(index);
+		}
+	}
+	
+	/**
+	 * Enable or disable write-ahead logging. With WAL, readers are not blocked by a write in progress,
+	 * so the history and bookmarks loaders can query while a visit or an image is being recorded.
+	 * WAL is persistent. disableWriteAheadLogging() needs API 16: older releases set the journal mode back with a pragma,
+	 * which has no effect while connections opened with WAL are in use. It is then applied on the next start.
+	 * @param enabled True to enable write-ahead logging.
+	 */
+	private void setWriteAheadLogging(boolean enabled) {
+		mStatements.clear();
+		
+		try {
+			if (enabled) {
+				if (mDb.enableWriteAheadLogging()) {
+					DatabaseMaintenance.executePragma(mDb, "wal_autocheckpoint = " + DATABASE_WAL_AUTOCHECKPOINT_PAGES);
+				}
+			} else if (android.os.Build.VERSION.SDK_INT > 15) {
+				mDb.disableWriteAheadLogging();
+			} else {
+				DatabaseMaintenance.executePragma(mDb, "journal_mode = DELETE");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w("BookmarksProvider", "Unable to change journal mode: " + e.getMessage());
+		}
+	}
+	
+	private String getJournalMode() {
+		return DatabaseMaintenance.executePragma(mDb, "journal_mode");
+	}
+	
+	/**
+	 * Check the permission of a caller from another process. Calls from this application are always allowed.
+	 * @param permission The permission to check.
+	 */
+	private void enforceCallerPermission(String permission) {
+		if ((permission != null) &&
+				(Binder.getCallingUid() != Process.myUid())) {
+			mContext.enforceCallingPermission(permission, "Permission denial for BookmarksProvider.call()");
+		}
+	}
+	
+	/**
+	 * Get the tables to query for the given projection. Favicons are stored in their own tables,
+	 * and are only joined to the bookmarks table when they are requested.
+	 * @param projection The query projection. A null projection means all columns.
+	 * @return The tables string to query.
+	 */
+	private String getBookmarksTables(String[] projection) {
+		boolean withFavicon = projection == null;
+		
+		if (projection != null) {
+			for (String column : projection) {
+				if (Columns.FAVICON.equals(column)) {
+					withFavicon = true;
+				}
+			}
+		}
+		
+		StringBuilder tables = new StringBuilder(BOOKMARKS_TABLE);
+		
+		if (withFavicon) {
+			tables.append(" LEFT OUTER JOIN " + FAVICONS_TABLE + " ON " +
+					FAVICONS_TABLE + "." + IMAGES_BOOKMARK_ID + " = " + BOOKMARKS_TABLE + "." + Columns._ID);
+			tables.append(" LEFT OUTER JOIN " + FAVICON_DATA_TABLE + " ON " +
+					FAVICON_DATA_TABLE + "." + FAVICON_ID + " = " + FAVICONS_TABLE + "." + FAVICON_ID);
+		}
+		
+		return tables.toString();
+	}
+	
+	/**
+	 * Remove the images values from the given values.
+	 * @param values The values to be written to the bookmarks table.
+	 * @return The removed images values, possibly empty.
+	 */
+	private ContentValues extractImages(ContentValues values) {
+		ContentValues images = new ContentValues();
+		
+		if (values.containsKey(Columns.FAVICON)) {
+			images.put(Columns.FAVICON, values.getAsByteArray(Columns.FAVICON));
+			values.remove(Columns.FAVICON);
+		}
+		
+		return images;
+	}
+	
+	/**
+	 * Write images for the bookmarks matching the given selection. A null image value deletes the stored image.
+	 * @param images The images values.
+	 * @param selection The selection on the bookmarks table.
+	 * @param selectionArgs The selection arguments.
+	 * @return The number of bookmarks whose images have been updated.
+	 */
+	private int updateImages(ContentValues images, String selection, String[] selectionArgs) {
+		int count = 0;
+		
+		if (images.containsKey(Columns.FAVICON)) {
+			count = Math.max(count, updateFavicon(images.getAsByteArray(Columns.FAVICON), selection, selectionArgs));
+		}
+		
+		return count;
+	}
+	
+	private int deleteImage(String table, String selection, String[] selectionArgs) {
+		String where = TextUtils.isEmpty(selection) ? "" : " WHERE " + selection;
+		
+		String sql = "DELETE FROM " + table + " WHERE " + IMAGES_BOOKMARK_ID + " IN " +
+				"(SELECT " + Columns._ID + " FROM " + BOOKMARKS_TABLE + where + ")";
+		SQLiteStatement statement = mStatements.acquire(sql);
+		
+		try {
+			if (selectionArgs != null) {
+				for (int i = 0; i < selectionArgs.length; i++) {
+					statement.bindString(i + 1, selectionArgs[i]);
+				}
+			}
+			
+			return statement.executeUpdateDelete();
+		} finally {
+			mStatements.release(sql, statement);
+		}
+	}
+	
+	/**
+	 * Write a favicon for the bookmarks matching the given selection, and for their hosts. The favicon data is only
+	 * written if it is not already stored, otherwise only the references are updated.
+	 * @param data The favicon data. A null value deletes the favicon of the bookmarks.
+	 * @param selection The selection on the bookmarks table.
+	 * @param selectionArgs The selection arguments.
+	 * @return The number of bookmarks whose favicon has changed.
+	 */
+	private int updateFavicon(byte[] data, String selection, String[] selectionArgs) {
+		if (data == null) {
+			return deleteImage(FAVICONS_TABLE, selection, selectionArgs);
+		}
+		
+		String where = TextUtils.isEmpty(selection) ? "" : " WHERE " + selection;
+		int count = 0;
+		
+		mDb.beginTransaction();
+		try {
+			long faviconId = getFaviconId(data);
+			
+			count += executeFaviconReference("UPDATE " + FAVICONS_TABLE + " SET " + FAVICON_ID + " = ?1 WHERE " + FAVICON_ID + " != ?1 AND " +
+					IMAGES_BOOKMARK_ID + " IN (SELECT " + Columns._ID + " FROM " + BOOKMARKS_TABLE + where + ")", faviconId, selectionArgs);
+			count += executeFaviconReference("INSERT OR IGNORE INTO " + FAVICONS_TABLE + " (" + IMAGES_BOOKMARK_ID + ", " + FAVICON_ID + ") " +
+					"SELECT " + Columns._ID + ", ?1 FROM " + BOOKMARKS_TABLE + where, faviconId, selectionArgs);
+			
+			updateFaviconHosts(faviconId, selection, selectionArgs);
+			
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Get the id of the given favicon data, storing it if needed.
+	 * @param data The favicon data.
+	 * @return The favicon id.
+	 */
+	private long getFaviconId(byte[] data) {
+		String hash = getFaviconHash(data);
+		
+		SQLiteStatement select = mStatements.acquire(FAVICON_SELECT_BY_HASH);
+		try {
+			select.bindString(1, hash);
+			return select.simpleQueryForLong();
+		} catch (SQLiteDoneException e) {
+			// Not stored yet.
+		} finally {
+			mStatements.release(FAVICON_SELECT_BY_HASH, select);
+		}
+		
+		SQLiteStatement insert = mStatements.acquire(FAVICON_INSERT);
+		try {
+			insert.bindString(1, hash);
+			insert.bindBlob(2, data);
+			return insert.executeInsert();
+		} finally {
+			mStatements.release(FAVICON_INSERT, insert);
+		}
+	}
+	
+	private int executeFaviconReference(String sql, long faviconId, String[] selectionArgs) {
+		SQLiteStatement statement = mStatements.acquire(sql);
+		try {
+			statement.bindLong(1, faviconId);
+			
+			if (selectionArgs != null) {
+				for (int i = 0; i < selectionArgs.length; i++) {
+					statement.bindString(i + 2, selectionArgs[i]);
+				}
+			}
+			
+			return statement.executeUpdateDelete();
+		} finally {
+			mStatements.release(sql, statement);
+		}
+	}
+	
+	/**
+	 * Make the given favicon the one of the hosts of the bookmarks matching the given selection.
+	 * @param faviconId The favicon id.
+	 * @param selection The selection on the bookmarks table.
+	 * @param selectionArgs The selection arguments.
+	 */
+	private void updateFaviconHosts(long faviconId, String selection, String[] selectionArgs) {
+		Set<String> hosts = new HashSet<String>();
+		
+		Cursor c = mDb.query(BOOKMARKS_TABLE, new String[] { Columns.URL }, selection, selectionArgs, null, null, null);
+		if (c != null) {
+			while (c.moveToNext()) {
+				String host = getHost(c.getString(0));
+				if (host != null) {
+					hosts.add(host);
+				}
+			}
+			
+			c.close();
+		}
+		
+		for (String host : hosts) {
+			SQLiteStatement update = mStatements.acquire(FAVICON_HOST_UPDATE);
+			int count;
+			try {
+				update.bindLong(1, faviconId);
+				update.bindString(2, host);
+				count = update.executeUpdateDelete();
+			} finally {
+				mStatements.release(FAVICON_HOST_UPDATE, update);
+			}
+			
+			if (count == 0) {
+				SQLiteStatement insert = mStatements.acquire(FAVICON_HOST_INSERT);
+				try {
+					insert.bindLong(1, faviconId);
+					insert.bindString(2, host);
+					insert.execute();
+				} finally {
+					mStatements.release(FAVICON_HOST_INSERT, insert);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Give a new record the favicon of its host, if known.
+	 * @param id The record id.
+	 * @param url The record url.
+	 */
+	private void setHostFavicon(long id, String url) {
+		String host = getHost(url);
+		if (host != null) {
+			SQLiteStatement statement = mStatements.acquire(FAVICON_FROM_HOST);
+			try {
+				statement.bindLong(1, id);
+				statement.bindString(2, host);
+				statement.execute();
+			} finally {
+				mStatements.release(FAVICON_FROM_HOST, statement);
+			}
+		}
+	}
+	
+	private static String getHost(String url) {
+		if (TextUtils.isEmpty(url)) {
+			return null;
+		}
+		
+		String host = Uri.parse(url).getHost();
+		return TextUtils.isEmpty(host) ? null : host.toLowerCase(Locale.US);
+	}
+	
+	private static String getFaviconHash(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+			
+			StringBuilder hash = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hash.append(Character.forDigit((b >> 4) & 0xF, 16));
+				hash.append(Character.forDigit(b & 0xF, 16));
+			}
+			
+			return hash.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-1 is always available.
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static class DatabaseHelper extends SQLiteOpenHelper {
+		
+		private Context mContext;
+		private boolean mCreated = false;
+
+		public DatabaseHelper(Context context) {
+			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+			mContext = context;
+		}
+
+		@Override
+		public void onCreate(SQLiteDatabase db) {
+			// Incremental vacuum must be set before the tables are created, see onOpen().
+			DatabaseMaintenance.executePragma(db, "auto_vacuum = INCREMENTAL");
+			mCreated = true;
+			
+			db.execSQL(BOOKMARKS_TABLE_CREATE);
+			createIndexes(db);
+			
+			createFavicons(db);
+			db.execSQL(IMAGES_CLEANUP_TRIGGER_CREATE);
+			
+			createFolderTree(db);
+			createVisitLog(db);
+			createSearchIndex(db);
+			createFrecencyTriggers(db);
+		}
+
+		@Override
+		public void onOpen(SQLiteDatabase db) {
+			super.onOpen(db);
+			
+			if (!db.isReadOnly()) {
+				// The pragma set in onCreate() is ignored when Android has already created its metadata table:
+				// a new database is small, it is then vacuumed right away.
+				if (mCreated) {
+					DatabaseMaintenance.enableIncrementalVacuum(db);
+					mCreated = false;
+				}
+				
+				int pageSize = Integer.parseInt(DatabaseMaintenance.executePragma(db, "page_size"));
+				
+				DatabaseMaintenance.executePragma(db, "synchronous = NORMAL");
+				DatabaseMaintenance.executePragma(db, "cache_size = " + Math.max(DATABASE_CACHE_SIZE_BYTES / pageSize, 100));
+				DatabaseMaintenance.executePragma(db, "temp_store = MEMORY");
+			}
+		}
+		
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+			// Each case falls through to the next one, so that a database is upgraded step by step to the current version.
+			switch (oldVersion) {
+			case 1: 
+				db.execSQL("ALTER TABLE " + BOOKMARKS_TABLE + " ADD " + Columns.IS_FOLDER + " INTEGER NOT NULL DEFAULT 0;");
+				db.execSQL("ALTER TABLE " + BOOKMARKS_TABLE + " ADD " + Columns.PARENT_FOLDER_ID + " INTEGER NOT NULL DEFAULT -1;");
+			case 2:
+				// Version 3 added indexes, they are created after the last step.
+			case 3:
+				moveImagesToSideTables(db);
+			case 4:
+				mergeDuplicateUrls(db);
+			case 5:
+				createFolderTree(db);
+				fillFolderTree(db);
+			case 6:
+				createVersion7VisitLog(db);
+			case 7:
+				clearUnvisitedDates(db);
+			case 8:
+				createSearchIndex(db);
+				db.execSQL("INSERT INTO " + SEARCH_TABLE + " (docid, " + Columns.TITLE + ", " + Columns.URL + ") " +
+						"SELECT " + Columns._ID + ", " + Columns.TITLE + ", " + Columns.URL + " FROM " + BOOKMARKS_TABLE + " WHERE " + Columns.IS_FOLDER + " = 0;");
+			case 9:
+				addFrecency(db);
+			case 10:
+				deduplicateFavicons(db);
+			case 11:
+				scheduleThumbnailsMigration(db);
+			case 12:
+				addVisitCount(db);
+			default: break;
+			}
+			
+			createIndexes(db);
+		}
+		
+		private void createFolderTree(SQLiteDatabase db) {
+			db.execSQL(FOLDER_TREE_TABLE_CREATE);
+			db.execSQL(FOLDER_TREE_INDEX_CREATE);
+			
+			for (String statement : FOLDER_TREE_TRIGGERS_CREATE) {
+				db.execSQL(statement);
+			}
+		}
+		
+		private void createVisitLog(SQLiteDatabase db) {
+			db.execSQL(VISIT_LOG_TABLE_CREATE);
+			
+			for (String statement : VISIT_LOG_INDEXES_CREATE) {
+				db.execSQL(statement);
+			}
+			
+			for (String statement : VISIT_LOG_TRIGGERS_CREATE) {
+				db.execSQL(statement);
+			}
+		}
+		
+		/**
+		 * Version 7: a visit is logged for each visited record, standing for its previous history.
+		 * The bookmarks table has no frecency column yet: the table, triggers and seed are the version 7 ones,
+		 * they are updated by addFrecency() and addVisitCount().
+		 * @param db The database.
+		 */
+		private void createVersion7VisitLog(SQLiteDatabase db) {
+			db.execSQL("CREATE TABLE " + VISIT_LOG_TABLE + " (" +
+					"_id INTEGER PRIMARY KEY, " +
+					LOG_BOOKMARK_ID + " INTEGER NOT NULL, " +
+					VISIT_DATE + " LONG NOT NULL, " +
+					VISIT_TRANSITION + " INTEGER NOT NULL DEFAULT " + TRANSITION_LINK + ");");
+			
+			for (String statement : VISIT_LOG_INDEXES_CREATE) {
+				db.execSQL(statement);
+			}
+			
+			db.execSQL("CREATE TRIGGER " + VISIT_LOG_TABLE + "_insert AFTER INSERT ON " + VISIT_LOG_TABLE + " WHEN new." + VISIT_TRANSITION + " != " + TRANSITION_IMPORT + " BEGIN " +
+					"UPDATE " + BOOKMARKS_TABLE + " SET " +
+					Columns.VISITS + " = IFNULL(" + Columns.VISITS + ", 0) + 1, " +
+					Columns.VISITED_DATE + " = MAX(IFNULL(" + Columns.VISITED_DATE + ", 0), new." + VISIT_DATE + ") " +
+					"WHERE " + Columns._ID + " = new." + LOG_BOOKMARK_ID + "; " +
+					"END;");
+			db.execSQL("CREATE TRIGGER " + VISIT_LOG_TABLE + "_delete AFTER DELETE ON " + VISIT_LOG_TABLE + " BEGIN " +
+					"UPDATE " + BOOKMARKS_TABLE + " SET " +
+					Columns.VISITS + " = CASE WHEN EXISTS (SELECT 1 FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " = old." + LOG_BOOKMARK_ID + ") " +
+					"THEN MAX(IFNULL(" + Columns.VISITS + ", 0) - 1, 1) ELSE 0 END, " +
+					Columns.VISITED_DATE + " = (SELECT MAX(" + VISIT_DATE + ") FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " = old." + LOG_BOOKMARK_ID + ") " +
+					"WHERE " + Columns._ID + " = old." + LOG_BOOKMARK_ID + "; " +
+					"END;");
+			db.execSQL("CREATE TRIGGER " + VISIT_LOG_TABLE + "_reset AFTER UPDATE OF " + Columns.VISITS + " ON " + BOOKMARKS_TABLE +
+					" WHEN IFNULL(new." + Columns.VISITS + ", 0) = 0 AND IFNULL(old." + Columns.VISITS + ", 0) > 0 BEGIN " +
+					"DELETE FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " = new." + Columns._ID + "; " +
+					"END;");
+			db.execSQL("CREATE TRIGGER " + VISIT_LOG_TABLE + "_cleanup AFTER DELETE ON " + BOOKMARKS_TABLE + " BEGIN " +
+					"DELETE FROM " + VISIT_LOG_TABLE + " WHERE " + LOG_BOOKMARK_ID + " = old." + Columns._ID + "; " +
+					"END;");
+			
+			db.execSQL("INSERT INTO " + VISIT_LOG_TABLE + " (" + LOG_BOOKMARK_ID + ", " + VISIT_DATE + ", " + VISIT_TRANSITION + ") " +
+					"SELECT " + Columns._ID + ", " + Columns.VISITED_DATE + ", " + TRANSITION_IMPORT + " FROM " + BOOKMARKS_TABLE + " WHERE " +
+					Columns.VISITS + " > 0 AND " + Columns.VISITED_DATE + " > 0;");
+		}
+		
+		private void createFavicons(SQLiteDatabase db) {
+			db.execSQL(FAVICON_DATA_TABLE_CREATE);
+			db.execSQL(FAVICONS_TABLE_CREATE);
+			db.execSQL(FAVICON_HOSTS_TABLE_CREATE);
+			
+			for (String statement : FAVICONS_INDEXES_CREATE) {
+				db.execSQL(statement);
+			}
+			
+			for (String statement : FAVICONS_TRIGGERS_CREATE) {
+				db.execSQL(statement);
+			}
+		}
+		
+		/**
+		 * Version 11: favicons are stored once per distinct image, and referenced by records and hosts.
+		 * Records are read by visited date, so that a host gets the favicon of its latest visited record.
+		 * @param db The database.
+		 */
+		private void deduplicateFavicons(SQLiteDatabase db) {
+			db.execSQL("DROP TRIGGER IF EXISTS " + BOOKMARKS_TABLE + "_images_cleanup;");
+			db.execSQL("ALTER TABLE " + FAVICONS_TABLE + " RENAME TO " + FAVICONS_TABLE + "_old;");
+			
+			createFavicons(db);
+			
+			Map<String, Long> faviconIds = new HashMap<String, Long>();
+			
+			SQLiteStatement insertData = db.compileStatement(FAVICON_INSERT);
+			SQLiteStatement insertReference = db.compileStatement("INSERT INTO " + FAVICONS_TABLE + " (" + IMAGES_BOOKMARK_ID + ", " + FAVICON_ID + ") VALUES (?, ?)");
+			SQLiteStatement insertHost = db.compileStatement("INSERT OR REPLACE INTO " + FAVICON_HOSTS_TABLE + " (" + FAVICON_ID + ", " + FAVICON_HOST + ") VALUES (?, ?)");
+			
+			Cursor c = db.rawQuery("SELECT o." + IMAGES_BOOKMARK_ID + ", o." + Columns.FAVICON + ", b." + Columns.URL + " FROM " + FAVICONS_TABLE + "_old o " +
+					"INNER JOIN " + BOOKMARKS_TABLE + " b ON b." + Columns._ID + " = o." + IMAGES_BOOKMARK_ID + " " +
+					"WHERE o." + Columns.FAVICON + " IS NOT NULL ORDER BY b." + Columns.VISITED_DATE, null);
+			if (c != null) {
+				while (c.moveToNext()) {
+					byte[] data = c.getBlob(1);
+					String hash = getFaviconHash(data);
+					
+					Long faviconId = faviconIds.get(hash);
+					if (faviconId == null) {
+						insertData.bindString(1, hash);
+						insertData.bindBlob(2, data);
+						faviconId = insertData.executeInsert();
+						
+						faviconIds.put(hash, faviconId);
+					}
+					
+					insertReference.bindLong(1, c.getLong(0));
+					insertReference.bindLong(2, faviconId);
+					insertReference.execute();
+					
+					String host = getHost(c.getString(2));
+					if (host != null) {
+						insertHost.bindLong(1, faviconId);
+						insertHost.bindString(2, host);
+						insertHost.execute();
+					}
+				}
+				
+				c.close();
+			}
+			
+			insertData.close();
+			insertReference.close();
+			insertHost.close();
+			
+			db.execSQL("DROP TABLE " + FAVICONS_TABLE + "_old;");
+			db.execSQL(IMAGES_CLEANUP_TRIGGER_CREATE);
+		}
+		
+		private void createFrecencyTriggers(SQLiteDatabase db) {
+			for (String statement : FRECENCY_TRIGGERS_CREATE) {
+				db.execSQL(statement);
+			}
+		}
+		
+		private void replaceVisitLogTriggers(SQLiteDatabase db) {
+			db.execSQL("DROP TRIGGER IF EXISTS " + VISIT_LOG_TABLE + "_insert;");
+			db.execSQL("DROP TRIGGER IF EXISTS " + VISIT_LOG_TABLE + "_import;");
+			db.execSQL("DROP TRIGGER IF EXISTS " + VISIT_LOG_TABLE + "_delete;");
+			db.execSQL("DROP TRIGGER IF EXISTS " + VISIT_LOG_TABLE + "_reset;");
+			db.execSQL("DROP TRIGGER IF EXISTS " + VISIT_LOG_TABLE + "_cleanup;");
+			
+			for (String statement : VISIT_LOG_TRIGGERS_CREATE) {
+				db.execSQL(statement);
+			}
+		}
+		
+		/**
+		 * Version 10: add the frecency column, estimated from the visits count and last visit date of the records.
+		 * The visit log triggers are replaced by the ones maintaining the frecency. The visit log has no visit count
+		 * column yet: the delete trigger is the version 10 one, it is replaced by addVisitCount().
+		 * @param db The database.
+		 */
+		private void addFrecency(SQLiteDatabase db) {
+			db.execSQL("ALTER TABLE " + BOOKMARKS_TABLE + " ADD " + Columns.FRECENCY + " INTEGER NOT NULL DEFAULT 0;");
+			
+			replaceVisitLogTriggers(db);
+			
+			db.execSQL("DROP TRIGGER " + VISIT_LOG_TABLE + "_delete;");
+			db.execSQL(getVisitLogDeleteTrigger("1"));
+			
+			db.execSQL("UPDATE " + BOOKMARKS_TABLE + " SET " + Columns.FRECENCY + " = " + getBookmarkFrecency("") + " + " +
+					"CASE WHEN " + Columns.VISITED_DATE + " IS NOT NULL THEN " + getImportedFrecency(Columns.VISITED_DATE) + " ELSE 0 END;");
+			
+			createFrecencyTriggers(db);
+		}
+		
+		private void createSearchIndex(SQLiteDatabase db) {
+			db.execSQL(SEARCH_TABLE_CREATE);
+			
+			for (String statement : SEARCH_TRIGGERS_CREATE) {
+				db.execSQL(statement);
+			}
+		}
+		
+		/**
+		 * Version 8: only visited records keep a visited date, and the visited date index is rebuilt on this column alone,
+		 * so that history is paged and counted by date from the index.
+		 * @param db The database.
+		 */
+		private void clearUnvisitedDates(SQLiteDatabase db) {
+			db.execSQL("UPDATE " + BOOKMARKS_TABLE + " SET " + Columns.VISITED_DATE + " = NULL WHERE " + Columns.VISITED_DATE + " IS NOT NULL AND " +
+					"(IFNULL(" + Columns.VISITS + ", 0) = 0 OR " + Columns.IS_FOLDER + " = 1);");
+			
+			db.execSQL("DROP INDEX IF EXISTS " + BOOKMARKS_TABLE + "_visited_date_index;");
+		}
+		
+		/**
+		 * Version 6: build the folder tree of existing folders, by walking up the parent folder ids.
+		 * @param db The database.
+		 */
+		private void fillFolderTree(SQLiteDatabase db) {
+			Map<Long, Long> parents = new HashMap<Long, Long>();
+			
+			Cursor c = db.rawQuery("SELECT " + Columns._ID + ", " + Columns.PARENT_FOLDER_ID + " FROM " + BOOKMARKS_TABLE + " WHERE " + Columns.IS_FOLDER + " = 1", null);
+			if (c != null) {
+				if (c.moveToFirst()) {
+					do {
+						parents.put(c.getLong(0), c.getLong(1));
+					} while (c.moveToNext());
+				}
+				
+				c.close();
+			}
+			
+			SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + FOLDER_TREE_TABLE + " (" + TREE_ANCESTOR_ID + ", " + TREE_DESCENDANT_ID + ", " + TREE_DEPTH + ") VALUES (?, ?, ?)");
+			
+			for (long folderId : parents.keySet()) {
+				long ancestorId = folderId;
+				int depth = 0;
+				
+				// Stop at the root or on a missing parent, or on a corrupted tree with a cycle.
+				while ((parents.containsKey(ancestorId)) &&
+						(depth <= parents.size())) {
+					insert.bindLong(1, ancestorId);
+					insert.bindLong(2, folderId);
+					insert.bindLong(3, depth);
+					insert.execute();
+					
+					ancestorId = parents.get(ancestorId);
+					depth++;
+				}
+			}
+			
+			insert.close();
+		}
+		
+		private void createIndexes(SQLiteDatabase db) {
+			for (String statement : BOOKMARKS_INDEXES_CREATE) {
+				db.execSQL(statement);
+			}
+		}
+		
+		/**
+		 * Version 4: favicons and thumbnails are moved out of the bookmarks table. As SQLite cannot
+		 * drop columns, the bookmarks table is rebuilt without them.
+		 * @param db The database.
+		 */
+		private void moveImagesToSideTables(SQLiteDatabase db) {
+			// The version 4 favicons table, with the favicons data in each row.
+			db.execSQL("CREATE TABLE " + FAVICONS_TABLE + " (" +
+					IMAGES_BOOKMARK_ID + " INTEGER PRIMARY KEY, " +
+					Columns.FAVICON + " BLOB);");
+			db.execSQL("CREATE TABLE " + THUMBNAILS_TABLE + " (" +
+					IMAGES_BOOKMARK_ID + " INTEGER PRIMARY KEY, " +
+					THUMBNAIL + " BLOB);");
+			
+			db.execSQL("INSERT INTO " + FAVICONS_TABLE + " (" + IMAGES_BOOKMARK_ID + ", " + Columns.FAVICON + ") " +
+					"SELECT " + Columns._ID + ", " + Columns.FAVICON + " FROM " + BOOKMARKS_TABLE + " WHERE " + Columns.FAVICON + " IS NOT NULL;");
+			db.execSQL("INSERT INTO " + THUMBNAILS_TABLE + " (" + IMAGES_BOOKMARK_ID + ", " + THUMBNAIL + ") " +
+					"SELECT " + Columns._ID + ", " + THUMBNAIL + " FROM " + BOOKMARKS_TABLE + " WHERE " + THUMBNAIL + " IS NOT NULL;");
+			
+			String columns = Columns._ID + ", " +
+					Columns.TITLE + ", " +
+					Columns.URL + ", " +
+					Columns.VISITS + ", " +
+					Columns.CREATION_DATE + ", " +
+					Columns.VISITED_DATE + ", " +
+					Columns.BOOKMARK + ", " +
+					Columns.IS_FOLDER + ", " +
+					Columns.PARENT_FOLDER_ID;
+			
+			db.execSQL("CREATE TABLE " + BOOKMARKS_TABLE + "_new (" +
+					Columns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+					Columns.TITLE + " TEXT, " +
+					Columns.URL + " TEXT, " +
+					Columns.VISITS + " INTEGER, " +
+					Columns.CREATION_DATE + " LONG, " +
+					Columns.VISITED_DATE + " LONG, " +
+					Columns.BOOKMARK + " INTEGER, " +
+					Columns.IS_FOLDER + " INTEGER NOT NULL DEFAULT 0, " +
+					Columns.PARENT_FOLDER_ID + " INTEGER NOT NULL DEFAULT -1);");
+			
+			db.execSQL("INSERT INTO " + BOOKMARKS_TABLE + "_new (" + columns + ") SELECT " + columns + " FROM " + BOOKMARKS_TABLE + ";");
+			db.execSQL("DROP TABLE " + BOOKMARKS_TABLE + ";");
+			db.execSQL("ALTER TABLE " + BOOKMARKS_TABLE + "_new RENAME TO " + BOOKMARKS_TABLE + ";");
+			
+			db.execSQL(IMAGES_CLEANUP_TRIGGER_CREATE);
+		}
+		
+		/**
+		 * Version 12: thumbnails are stored as files by ThumbnailStore. Decoding them would make the upgrade
+		 * too long: the thumbnails table is kept, and moved later on a background task, see METHOD_MIGRATE_THUMBNAILS.
+		 * @param db The database.
+		 */
+		private void scheduleThumbnailsMigration(SQLiteDatabase db) {
+			db.execSQL("DROP TRIGGER IF EXISTS " + BOOKMARKS_TABLE + "_images_cleanup;");
+			db.execSQL(IMAGES_CLEANUP_TRIGGER_CREATE);
+			
+			PreferenceManager.getDefaultSharedPreferences(mContext).edit().putBoolean(Constants.TECHNICAL_PREFERENCE_THUMBNAILS_MIGRATION_NEEDED, true).commit();
+		}
+		
+		/**
+		 * Version 13: visit log rows hold the number of visits they stand for, so that deleting an imported visit
+		 * removes all of them from the visits count. The latest imported visit of a record gets the visits not
+		 * logged otherwise, and the records whose visits are still not all logged are seeded.
+		 * @param db The database.
+		 */
+		private void addVisitCount(SQLiteDatabase db) {
+			db.execSQL("ALTER TABLE " + VISIT_LOG_TABLE + " ADD " + LOG_VISIT_COUNT + " INTEGER NOT NULL DEFAULT 1;");
+			
+			db.execSQL("UPDATE " + VISIT_LOG_TABLE + " SET " + LOG_VISIT_COUNT + " = MAX(" +
+					"IFNULL((SELECT " + Columns.VISITS + " FROM " + BOOKMARKS_TABLE + " WHERE " + Columns._ID + " = " + VISIT_LOG_TABLE + "." + LOG_BOOKMARK_ID + "), 0) - " +
+					"(SELECT COUNT(*) FROM " + VISIT_LOG_TABLE + " l WHERE l." + LOG_BOOKMARK_ID + " = " + VISIT_LOG_TABLE + "." + LOG_BOOKMARK_ID + ") + 1, 1) " +
+					"WHERE " + Columns._ID + " = (SELECT MAX(l." + Columns._ID + ") FROM " + VISIT_LOG_TABLE + " l WHERE l." + LOG_BOOKMARK_ID + " = " + VISIT_LOG_TABLE + "." + LOG_BOOKMARK_ID +
+					" AND l." + VISIT_TRANSITION + " = " + TRANSITION_IMPORT + ");");
+			
+			replaceVisitLogTriggers(db);
+			
+			db.execSQL(VISIT_LOG_SEED);
+		}
+		
+		/**
+		 * Version 5: urls are unique. Records sharing an url are merged into one, preferably the bookmark,
+		 * which gets the sum of the visits, the latest visit date and the images of the merged records.
+		 * @param db The database.
+		 */
+		private void mergeDuplicateUrls(SQLiteDatabase db) {
+			String duplicates = "(SELECT " + Columns.URL + " FROM " + BOOKMARKS_TABLE + " WHERE " + Columns.URL + " IS NOT NULL" +
+					" GROUP BY " + Columns.URL + " HAVING COUNT(*) > 1)";
+			
+			String keeper = "(SELECT k." + Columns._ID + " FROM " + BOOKMARKS_TABLE + " k WHERE k." + Columns.URL + " = " + BOOKMARKS_TABLE + "." + Columns.URL +
+					" ORDER BY IFNULL(k." + Columns.BOOKMARK + ", 0) DESC, k." + Columns._ID + " LIMIT 1)";
+			
+			db.execSQL("UPDATE " + BOOKMARKS_TABLE + " SET " +
+					Columns.VISITS + " = (SELECT SUM(d." + Columns.VISITS + ") FROM " + BOOKMARKS_TABLE + " d WHERE d." + Columns.URL + " = " + BOOKMARKS_TABLE + "." + Columns.URL + "), " +
+					Columns.VISITED_DATE + " = (SELECT MAX(d." + Columns.VISITED_DATE + ") FROM " + BOOKMARKS_TABLE + " d WHERE d." + Columns.URL + " = " + BOOKMARKS_TABLE + "." + Columns.URL + ") " +
+					"WHERE " + Columns.URL + " IN " + duplicates + " AND " + Columns._ID + " = " + keeper + ";");
+			
+			db.execSQL("INSERT OR IGNORE INTO " + FAVICONS_TABLE + " (" + IMAGES_BOOKMARK_ID + ", " + Columns.FAVICON + ") " +
+					"SELECT " + keeper + ", " + FAVICONS_TABLE + "." + Columns.FAVICON + " FROM " + BOOKMARKS_TABLE +
+					" INNER JOIN " + FAVICONS_TABLE + " ON " + FAVICONS_TABLE + "." + IMAGES_BOOKMARK_ID + " = " + BOOKMARKS_TABLE + "." + Columns._ID +
+					" WHERE " + Columns.URL + " IN " + duplicates + ";");
+			
+			db.execSQL("INSERT OR IGNORE INTO " + THUMBNAILS_TABLE + " (" + IMAGES_BOOKMARK_ID + ", " + THUMBNAIL + ") " +
+					"SELECT " + keeper + ", " + THUMBNAILS_TABLE + "." + THUMBNAIL + " FROM " + BOOKMARKS_TABLE +
+					" INNER JOIN " + THUMBNAILS_TABLE + " ON " + THUMBNAILS_TABLE + "." + IMAGES_BOOKMARK_ID + " = " + BOOKMARKS_TABLE + "." + Columns._ID +
+					" WHERE " + Columns.URL + " IN " + duplicates + ";");
+			
+			db.execSQL("DELETE FROM " + BOOKMARKS_TABLE + " WHERE " + Columns.URL + " IN " + duplicates + " AND " + Columns._ID + " != " + keeper + ";");
+			
+			// Replaced by the unique index.
+			db.execSQL("DROP INDEX IF EXISTS " + BOOKMARKS_TABLE + "_url_index;");
+		}
 	}
 }
@@ -0,0 +1,122 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.providers;
+
+import org.tint.model.BookmarkHistoryItem;
+
+import android.database.Cursor;
+
+/**
+ * Typed access to the rows of a bookmarks/history cursor.
+ * Column indexes are resolved once, when the mapper is created, instead of on each row.
+ * Columns absent from the cursor projection are read as their default value.
+ */
+public class BookmarksRowMapper {
+	
+	private Cursor mCursor;
+	
+	private int mIdIndex;
+	private int mTitleIndex;
+	private int mUrlIndex;
+	private int mVisitsIndex;
+	private int mCreationDateIndex;
+	private int mVisitedDateIndex;
+	private int mBookmarkIndex;
+	private int mIsFolderIndex;
+	private int mParentFolderIdIndex;
+	private int mFaviconIndex;
+	
+	/**
+	 * Constructor.
+	 * @param cursor The cursor to map. Its position is not modified.
+	 */
+	public BookmarksRowMapper(Cursor cursor) {
+		mCursor = cursor;
+		
+		mIdIndex = cursor.getColumnIndex(BookmarksProvider.Columns._ID);
+		mTitleIndex = cursor.getColumnIndex(BookmarksProvider.Columns.TITLE);
+		mUrlIndex = cursor.getColumnIndex(BookmarksProvider.Columns.URL);
+		mVisitsIndex = cursor.getColumnIndex(BookmarksProvider.Columns.VISITS);
+		mCreationDateIndex = cursor.getColumnIndex(BookmarksProvider.Columns.CREATION_DATE);
+		mVisitedDateIndex = cursor.getColumnIndex(BookmarksProvider.Columns.VISITED_DATE);
+		mBookmarkIndex = cursor.getColumnIndex(BookmarksProvider.Columns.BOOKMARK);
+		mIsFolderIndex = cursor.getColumnIndex(BookmarksProvider.Columns.IS_FOLDER);
+		mParentFolderIdIndex = cursor.getColumnIndex(BookmarksProvider.Columns.PARENT_FOLDER_ID);
+		mFaviconIndex = cursor.getColumnIndex(BookmarksProvider.Columns.FAVICON);
+	}
+	
+	/**
+	 * Check if this mapper has been created for the given cursor.
+	 * @param cursor The cursor.
+	 * @return True if this mapper can be used on the given cursor.
+	 */
+	public boolean isMapping(Cursor cursor) {
+		return mCursor == cursor;
+	}
+	
+	public Cursor getCursor() {
+		return mCursor;
+	}
+	
+	public long getId() {
+		return mIdIndex != -1 ? mCursor.getLong(mIdIndex) : -1;
+	}
+	
+	public String getTitle() {
+		return mTitleIndex != -1 ? mCursor.getString(mTitleIndex) : null;
+	}
+	
+	public String getUrl() {
+		return mUrlIndex != -1 ? mCursor.getString(mUrlIndex) : null;
+	}
+	
+	public int getVisits() {
+		return mVisitsIndex != -1 ? mCursor.getInt(mVisitsIndex) : 0;
+	}
+	
+	public long getCreationDate() {
+		return mCreationDateIndex != -1 ? mCursor.getLong(mCreationDateIndex) : 0;
+	}
+	
+	public long getVisitedDate() {
+		return mVisitedDateIndex != -1 ? mCursor.getLong(mVisitedDateIndex) : 0;
+	}
+	
+	public boolean isBookmark() {
+		return mBookmarkIndex != -1 && mCursor.getInt(mBookmarkIndex) > 0;
+	}
+	
+	public boolean isFolder() {
+		return mIsFolderIndex != -1 && mCursor.getInt(mIsFolderIndex) > 0;
+	}
+	
+	public long getParentFolderId() {
+		return mParentFolderIdIndex != -1 ? mCursor.getLong(mParentFolderIdIndex) : -1;
+	}
+	
+	public byte[] getFavicon() {
+		return mFaviconIndex != -1 ? mCursor.getBlob(mFaviconIndex) : null;
+	}
+	
+	/**
+	 * Build an item from the current cursor row.
+	 * @return The item.
+	 */
+	public BookmarkHistoryItem toBookmarkHistoryItem() {
+		return new BookmarkHistoryItem(getId(), getTitle(), getUrl(), getVisitedDate(), isBookmark(), isFolder(), getParentFolderId(), getFavicon());
+	}
+
+}
@@ -25,58 +25,126 @@ import org.tint.model.BookmarkHistoryItem;
 import org.tint.model.FolderItem;
 import org.tint.utils.Constants;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.CursorLoader;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.util.Log;
+import android.webkit.DateSorter;
 
 public class BookmarksWrapper {	
 	
-	public static String[] HISTORY_BOOKMARKS_PROJECTION = new String[] {
+	/**
+	 * Projection for checking the existence of a record, or getting its id.
+	 */
+	public static final String[] ID_PROJECTION = new String[] {
+		BookmarksProvider.Columns._ID };
+	
+	/**
+	 * Projection for the url suggestions list.
+	 */
+	public static final String[] URL_SUGGESTIONS_PROJECTION = new String[] {
+		BookmarksProvider.Columns._ID,
+		BookmarksProvider.Columns.TITLE,
+		BookmarksProvider.Columns.URL,
+		BookmarksProvider.Columns.BOOKMARK };
+	
+	/**
+	 * Projection for history rows, and for building a BookmarkHistoryItem.
+	 */
+	public static final String[] HISTORY_ROW_PROJECTION = new String[] {
+		BookmarksProvider.Columns._ID,
+		BookmarksProvider.Columns.TITLE,
+		BookmarksProvider.Columns.URL,
+		BookmarksProvider.Columns.VISITED_DATE,
+		BookmarksProvider.Columns.BOOKMARK,
+		BookmarksProvider.Columns.IS_FOLDER,
+		BookmarksProvider.Columns.PARENT_FOLDER_ID,
+		BookmarksProvider.Columns.FAVICON };
+	
+	/**
+	 * Projection for bookmarks rows, in bookmarks list and in start page.
+	 */
+	public static final String[] BOOKMARK_ROW_PROJECTION = new String[] {
+		BookmarksProvider.Columns._ID,
+		BookmarksProvider.Columns.TITLE,
+		BookmarksProvider.Columns.URL,
+		BookmarksProvider.Columns.IS_FOLDER };
+	
+	/**
+	 * Projection for folders lists.
+	 */
+	public static final String[] FOLDER_PROJECTION = new String[] {
+		BookmarksProvider.Columns._ID,
+		BookmarksProvider.Columns.TITLE };
+	
+	/**
+	 * Projection for deciding if a record can be deleted, or must be kept as a bookmark or as history.
+	 */
+	public static final String[] RECORD_STATE_PROJECTION = new String[] {
+		BookmarksProvider.Columns._ID,
+		BookmarksProvider.Columns.VISITS,
+		BookmarksProvider.Columns.BOOKMARK };
+	
+	/**
+	 * Projection for exporting history and bookmarks. Images are not exported.
+	 */
+	public static final String[] EXPORT_PROJECTION = new String[] {
 		BookmarksProvider.Columns._ID,
-        BookmarksProvider.Columns.TITLE,
-        BookmarksProvider.Columns.URL,
-        BookmarksProvider.Columns.VISITS,
-        BookmarksProvider.Columns.CREATION_DATE,
-        BookmarksProvider.Columns.VISITED_DATE,
-        BookmarksProvider.Columns.BOOKMARK,
-        BookmarksProvider.Columns.IS_FOLDER,
-        BookmarksProvider.Columns.PARENT_FOLDER_ID,
-        BookmarksProvider.Columns.FAVICON,
-        BookmarksProvider.Columns.THUMBNAIL };
+		BookmarksProvider.Columns.TITLE,
+		BookmarksProvider.Columns.URL,
+		BookmarksProvider.Columns.VISITS,
+		BookmarksProvider.Columns.CREATION_DATE,
+		BookmarksProvider.Columns.VISITED_DATE,
+		BookmarksProvider.Columns.BOOKMARK,
+		BookmarksProvider.Columns.IS_FOLDER,
+		BookmarksProvider.Columns.PARENT_FOLDER_ID };
 	
+	/**
+	 * Selections, to be used with selection arguments so that their statements are compiled once.
+	 */
+	private static final String ID_WHERE = BookmarksProvider.Columns._ID + " = ?";
+	private static final String URL_WHERE = BookmarksProvider.Columns.URL + " = ?";
+	private static final String URLS_WHERE = BookmarksProvider.Columns.URL + " = ? OR " + BookmarksProvider.Columns.URL + " = ?";
+	
+	/**
+	 * Get a loader for the start page: the visited records with the highest frecency.
+	 * Frecency already accounts for the recency of visits, so there is no date window to filter on.
+	 * @param context The current context.
+	 * @param limit The maximum number of records.
+	 * @return The loader.
+	 */
 	public static CursorLoader getCursorLoaderForStartPage(Context context, int limit) {
-		Calendar c = Calendar.getInstance();
-		c.setTime(new Date());          
-		c.set(Calendar.HOUR_OF_DAY, 0);
-		c.set(Calendar.MINUTE, 0);
-		c.set(Calendar.SECOND, 0);
-		c.set(Calendar.MILLISECOND, 0);
-		c.add(Calendar.DAY_OF_YEAR, - 14);
+		String whereClause = BookmarksProvider.Columns.VISITS + " > 0";
 		
-		String whereClause = BookmarksProvider.Columns.VISITED_DATE + " > " + Long.toString(c.getTimeInMillis());	
+		String orderClause = BookmarksProvider.Columns.FRECENCY + " DESC LIMIT " + Integer.toString(limit);
 		
-		String orderClause = BookmarksProvider.Columns.VISITS + " DESC, " + 
-				BookmarksProvider.Columns.VISITED_DATE + " DESC LIMIT " + Integer.toString(limit);
+		Uri uri = BookmarksProvider.getObservingUri(BookmarksProvider.BOOKMARKS_URI,
+				BookmarksProvider.CHANGES_HISTORY,
+				BookmarksProvider.CHANGES_THUMBNAILS);
 		
-		return new CursorLoader(context, BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, orderClause);
+		return new CursorLoader(context, uri, BOOKMARK_ROW_PROJECTION, whereClause, null, orderClause);
 	}
 	
 	public static CursorLoader getCursorLoaderForBookmarks(Context context, long parentFolderId) {
 		int sortMode = PreferenceManager.getDefaultSharedPreferences(context).getInt(Constants.PREFERENCE_BOOKMARKS_SORT_MODE, 0);
 		
-		String whereClause = BookmarksProvider.Columns.PARENT_FOLDER_ID + " = " + parentFolderId + " AND (" + BookmarksProvider.Columns.BOOKMARK + " = 1 OR " + BookmarksProvider.Columns.IS_FOLDER + " = 1)";
+		String whereClause = BookmarksProvider.Columns.PARENT_FOLDER_ID + " = ? AND (" + BookmarksProvider.Columns.BOOKMARK + " = 1 OR " + BookmarksProvider.Columns.IS_FOLDER + " = 1)";
 		
 		String orderClause;
 		switch (sortMode) {
 		case 0:
-			orderClause = BookmarksProvider.Columns.IS_FOLDER + " DESC, " + BookmarksProvider.Columns.VISITS + " DESC, " + BookmarksProvider.Columns.TITLE + " COLLATE NOCASE";
+			orderClause = BookmarksProvider.Columns.IS_FOLDER + " DESC, " + BookmarksProvider.Columns.FRECENCY + " DESC, " + BookmarksProvider.Columns.TITLE + " COLLATE NOCASE";
 			break;
 		
 		case 1:
@@ -88,38 +156,87 @@ public class BookmarksWrapper {
 			break;
 
 		default:
-			orderClause = BookmarksProvider.Columns.IS_FOLDER + " DESC, " + BookmarksProvider.Columns.VISITS + " DESC, " + BookmarksProvider.Columns.TITLE + " COLLATE NOCASE";
+			orderClause = BookmarksProvider.Columns.IS_FOLDER + " DESC, " + BookmarksProvider.Columns.FRECENCY + " DESC, " + BookmarksProvider.Columns.TITLE + " COLLATE NOCASE";
 			break;
 		}		
 		
-		return new CursorLoader(context, BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, orderClause);
+		Uri uri = BookmarksProvider.getObservingUri(BookmarksProvider.BOOKMARKS_URI,
+				BookmarksProvider.CHANGES_BOOKMARKS,
+				BookmarksProvider.CHANGES_FOLDERS,
+				BookmarksProvider.CHANGES_THUMBNAILS);
+		
+		return new CursorLoader(context, uri, BOOKMARK_ROW_PROJECTION, whereClause, new String[] { Long.toString(parentFolderId) }, orderClause);
 	}
 	
-	public static CursorLoader getCursorLoaderForHistory(Context context) {
-		String whereClause = BookmarksProvider.Columns.VISITS + " > 0 AND " + BookmarksProvider.Columns.IS_FOLDER + " = 0";
-		String orderClause = BookmarksProvider.Columns.VISITED_DATE + " DESC";
+	/**
+	 * Get a loader for the history records counts in each bin of the given date sorter.
+	 * @param context The current context.
+	 * @param dateSorter The date sorter defining the bins.
+	 * @return The loader.
+	 */
+	public static CursorLoader getCursorLoaderForHistoryBins(Context context, DateSorter dateSorter) {
+		String[] boundaries = new String[DateSorter.DAY_COUNT - 1];
+		for (int i = 0; i < boundaries.length; i++) {
+			boundaries[i] = Long.toString(dateSorter.getBoundary(i));
+		}
 		
-		return new CursorLoader(context, BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, orderClause);
+		Uri uri = BookmarksProvider.getObservingUri(BookmarksProvider.HISTORY_BINS_URI,
+				BookmarksProvider.CHANGES_HISTORY,
+				BookmarksProvider.CHANGES_FAVICONS);
+		
+		return new CursorLoader(context, uri, null, null, boundaries, null);
+	}
+	
+	private static final String HISTORY_PAGE_WHERE = BookmarksProvider.Columns.VISITED_DATE + " > ? AND " +
+			BookmarksProvider.Columns.VISITED_DATE + " <= ? AND (" +
+			BookmarksProvider.Columns.VISITED_DATE + " < ? OR " + BookmarksProvider.Columns._ID + " < ?)";
+	
+	private static final String HISTORY_PAGE_ORDER = BookmarksProvider.Columns.VISITED_DATE + " DESC, " + BookmarksProvider.Columns._ID + " DESC LIMIT ";
+	
+	/**
+	 * Get a page of history, from the most recent visits. Pages are keyed on the visited date and id of the last
+	 * record of the previous page, so that a page is read from the visited date index, whatever its position.
+	 * @param contentResolver The content resolver.
+	 * @param lowerBoundary Only records visited after this date, exclusive, are returned.
+	 * @param afterDate The visited date of the last record of the previous page, or the upper boundary, inclusive, of the first page.
+	 * @param afterId The id of the last record of the previous page, or Long.MAX_VALUE for the first page.
+	 * @param limit The maximum number of records.
+	 * @return The page records.
+	 */
+	public static List<BookmarkHistoryItem> getHistoryPage(ContentResolver contentResolver, long lowerBoundary, long afterDate, long afterId, int limit) {
+		List<BookmarkHistoryItem> result = new ArrayList<BookmarkHistoryItem>();
+		
+		String[] whereArgs = new String[] {
+				Long.toString(lowerBoundary),
+				Long.toString(afterDate),
+				Long.toString(afterDate),
+				Long.toString(afterId) };
+		
+		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_ROW_PROJECTION, HISTORY_PAGE_WHERE, whereArgs, HISTORY_PAGE_ORDER + limit);
+		if (c != null) {
+			BookmarksRowMapper mapper = new BookmarksRowMapper(c);
+			
+			while (c.moveToNext()) {
+				result.add(mapper.toBookmarkHistoryItem());
+			}
+			
+			c.close();
+		}
+		
+		return result;
 	}
 	
 	public static Cursor getAllHistoryBookmarks(ContentResolver contentResolver) {
-		return contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, null, null, null);
+		return contentResolver.query(BookmarksProvider.BOOKMARKS_URI, EXPORT_PROJECTION, null, null, null);
 	}
 	
 	public static BookmarkHistoryItem getBookmarkById(ContentResolver contentResolver, long id) {
 		BookmarkHistoryItem result = null;
-		String whereClause = BookmarksProvider.Columns._ID + " = " + id;
 		
-		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, null);
+		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_ROW_PROJECTION, ID_WHERE, new String[] { Long.toString(id) }, null);
 		if (c != null) {
-			if (c.moveToFirst()) {				
-				String title = c.getString(c.getColumnIndex(BookmarksProvider.Columns.TITLE));
-                String url = c.getString(c.getColumnIndex(BookmarksProvider.Columns.URL));
-                boolean isBookmarks = c.getInt(c.getColumnIndex(BookmarksProvider.Columns.BOOKMARK)) > 0 ? true : false;
-                boolean isFolder = c.getInt(c.getColumnIndex(BookmarksProvider.Columns.IS_FOLDER)) > 0 ? true : false;
-                long folderId = c.getLong(c.getColumnIndex(BookmarksProvider.Columns.PARENT_FOLDER_ID));
-                byte[] favIcon = c.getBlob(c.getColumnIndex(BookmarksProvider.Columns.FAVICON));
-                result = new BookmarkHistoryItem(id, title, url, isBookmarks, isFolder, folderId, favIcon);
+			if (c.moveToFirst()) {
+				result = new BookmarksRowMapper(c).toBookmarkHistoryItem();
 			}
 			
 			c.close();
@@ -129,29 +246,28 @@ public class BookmarksWrapper {
 	}
 	
 	/**
-	 * Clear the history/bookmarks table.
+	 * Clear the history/bookmarks table. Clearing history removes all visits, bookmarks are kept.
+	 * Deletes are done in chunks, like history truncation: do not call it from the UI thread.
 	 * @param contentResolver The content resolver.
 	 * @param clearHistory If true, history items will be cleared.
 	 * @param clearBookmarks If true, bookmarked items will be cleared.
 	 */
 	public static void clearHistoryAndOrBookmarks(ContentResolver contentResolver, boolean clearHistory, boolean clearBookmarks) {
-		
-		if (!clearHistory && !clearBookmarks) {
-			return;
-		}
-		
-		String whereClause = null;
-		if (clearHistory && clearBookmarks) {
-			whereClause = null;
-		} else if (clearHistory) {
-			whereClause = "((" + BookmarksProvider.Columns.BOOKMARK + " = 0) OR (" +
-					BookmarksProvider.Columns.BOOKMARK + " IS NULL)) AND (" +
-					BookmarksProvider.Columns.IS_FOLDER + " = 0)";
-		} else if (clearBookmarks) {
-			whereClause = "(" + BookmarksProvider.Columns.BOOKMARK + " = 1) OR (" + BookmarksProvider.Columns.IS_FOLDER + " = 1)";
+		try {
+			if (clearHistory) {
+				Bundle extras = new Bundle();
+				extras.putLong(BookmarksProvider.EXTRA_VISITED_BEFORE, Long.MAX_VALUE);
+				
+				contentResolver.call(BookmarksProvider.BOOKMARKS_URI, BookmarksProvider.METHOD_APPLY_RETENTION, null, extras);
+			}
+			
+			if (clearBookmarks) {
+				contentResolver.call(BookmarksProvider.BOOKMARKS_URI, BookmarksProvider.METHOD_CLEAR_BOOKMARKS, null, null);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w("BookmarksWrapper", "Unable to clear history and/or bookmarks: " + e.getMessage());
 		}
-		
-		contentResolver.delete(BookmarksProvider.BOOKMARKS_URI, whereClause, null);		
 	}
 	
 	public static List<FolderItem> getFirstLevelFoldersList(ContentResolver contentResolver) {
@@ -160,7 +276,7 @@ public class BookmarksWrapper {
 		String whereClause = BookmarksProvider.Columns.IS_FOLDER + " = 1 AND " + BookmarksProvider.Columns.PARENT_FOLDER_ID + " = -1";
 		String orderClause = BookmarksProvider.Columns.TITLE;
 		
-		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, orderClause);
+		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, FOLDER_PROJECTION, whereClause, null, orderClause);
 		if ((c != null) &&
 				(c.moveToFirst())) {
 			
@@ -178,15 +294,20 @@ public class BookmarksWrapper {
 	}
 	
 	public static long getFolderId(ContentResolver contentResolver, String folderName, boolean createIfNotPresent) {
-		String escapedFolderName = DatabaseUtils.sqlEscapeString(folderName);
+		String whereClause = BookmarksProvider.Columns.TITLE + " = ? AND " + BookmarksProvider.Columns.IS_FOLDER + " = 1";
 		
-		String whereClause = BookmarksProvider.Columns.TITLE + " = " + escapedFolderName + " AND " + BookmarksProvider.Columns.IS_FOLDER + " = 1";
-		
-		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, null);
+		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, ID_PROJECTION, whereClause, new String[] { folderName }, null);
 		if ((c != null) &&
 				(c.moveToFirst())) {
-			return c.getLong(c.getColumnIndex(BookmarksProvider.Columns._ID));
+			long id = c.getLong(0);
+			c.close();
+			
+			return id;
 		} else {
+			if (c != null) {
+				c.close();
+			}
+			
 			if (createIfNotPresent) {
 				
 				ContentValues values = new ContentValues();
@@ -197,13 +318,7 @@ public class BookmarksWrapper {
 				
 				Uri result = contentResolver.insert(BookmarksProvider.BOOKMARKS_URI, values);
 				
-				Cursor inserted = contentResolver.query(result, HISTORY_BOOKMARKS_PROJECTION, null, null, null);
-				if ((inserted != null) &&
-						(inserted.moveToFirst())) {
-					return inserted.getLong(inserted.getColumnIndex(BookmarksProvider.Columns._ID));					
-				} else {
-					return -1;
-				}
+				return result != null ? ContentUris.parseId(result) : -1;
 				
 			} else {
 				return -1;
@@ -226,22 +341,21 @@ public class BookmarksWrapper {
 		boolean bookmarkExist = false;
 
 		if (id != -1) {
-			String[] colums = new String[] { BookmarksProvider.Columns._ID };
-			String whereClause = BookmarksProvider.Columns._ID + " = " + id;
-
-			Cursor cursor = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, colums, whereClause, null, null);
+			Cursor cursor = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, ID_PROJECTION, ID_WHERE, new String[] { Long.toString(id) }, null);
 			bookmarkExist = (cursor != null) && (cursor.moveToFirst());
-		} else {
-			String[] colums = new String[] { BookmarksProvider.Columns._ID };
 			
-			String escapedUrl = DatabaseUtils.sqlEscapeString(url);
-			
-			String whereClause = BookmarksProvider.Columns.URL + " = " + escapedUrl;
-
-			Cursor cursor = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, colums, whereClause, null, null);
+			if (cursor != null) {
+				cursor.close();
+			}
+		} else {
+			Cursor cursor = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, ID_PROJECTION, URL_WHERE, new String[] { url }, null);
 			bookmarkExist = (cursor != null) && (cursor.moveToFirst());
 			if (bookmarkExist) {
-				id = cursor.getLong(cursor.getColumnIndex(BookmarksProvider.Columns._ID));
+				id = cursor.getLong(0);
+			}
+			
+			if (cursor != null) {
+				cursor.close();
 			}
 		}
 
@@ -264,21 +378,37 @@ public class BookmarksWrapper {
 			values.putNull(BookmarksProvider.Columns.CREATION_DATE);
 		}
 
-		if (bookmarkExist) {                                    
-			contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, BookmarksProvider.Columns._ID + " = " + id, null);
-		} else {                        
-			contentResolver.insert(BookmarksProvider.BOOKMARKS_URI, values);
+		try {
+			if (bookmarkExist) {
+				if (url != null) {
+					// Urls are unique, a history record with the new url is replaced by the edited record.
+					contentResolver.delete(BookmarksProvider.BOOKMARKS_URI,
+							BookmarksProvider.Columns.URL + " = ? AND " +
+							BookmarksProvider.Columns._ID + " != ? AND (" +
+							BookmarksProvider.Columns.BOOKMARK + " = 0 OR " + BookmarksProvider.Columns.BOOKMARK + " IS NULL)",
+							new String[] { url, Long.toString(id) });
+				}
+				
+				contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, ID_WHERE, new String[] { Long.toString(id) });
+			} else {
+				contentResolver.insert(BookmarksProvider.BOOKMARKS_URI, values);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w("BookmarksWrapper", "Unable to set bookmark: " + e.getMessage());
 		}
 	}
 	
 	public static void deleteBookmark(ContentResolver contentResolver, long id) {
-		String whereClause = BookmarksProvider.Columns._ID + " = " + id;
+		String[] whereArgs = new String[] { Long.toString(id) };
         
-		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, null);
+		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, RECORD_STATE_PROJECTION, ID_WHERE, whereArgs, null);
 		if (c != null) {
 			if (c.moveToFirst()) {
-				if (c.getInt(c.getColumnIndex(BookmarksProvider.Columns.BOOKMARK)) == 1) {
-					if (c.getInt(c.getColumnIndex(BookmarksProvider.Columns.VISITS)) > 0) {
+				BookmarksRowMapper row = new BookmarksRowMapper(c);
+				
+				if (row.isBookmark()) {
+					if (row.getVisits() > 0) {
 						
 						// If this record has been visited, keep it in history, but remove its bookmark flag.
                         ContentValues values = new ContentValues();
@@ -286,11 +416,11 @@ public class BookmarksWrapper {
                         values.put(BookmarksProvider.Columns.PARENT_FOLDER_ID, -1);
                         values.putNull(BookmarksProvider.Columns.CREATION_DATE);
                         
-                        contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, whereClause, null);
+                        contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, ID_WHERE, whereArgs);
 
 					} else {
 						// never visited, it can be deleted.
-						contentResolver.delete(BookmarksProvider.BOOKMARKS_URI, whereClause, null);
+						contentResolver.delete(BookmarksProvider.BOOKMARKS_URI, ID_WHERE, whereArgs);
 					}
 				}
 			}
@@ -299,81 +429,114 @@ public class BookmarksWrapper {
 		}
 	}
 	
-	public static void deleteFolder(ContentResolver contentResolver, long id) {				
-		
-		BookmarksProvider provider = (BookmarksProvider) contentResolver.acquireContentProviderClient(BookmarksProvider.BOOKMARKS_URI).getLocalContentProvider();
-		provider.setNotifyChanges(false);
+	/**
+	 * Delete a folder, its sub-folders and the bookmarks they contain. Bookmarks which have been visited
+	 * are kept in history.
+	 * @param contentResolver The content resolver.
+	 * @param id The folder id.
+	 */
+	public static void deleteFolder(ContentResolver contentResolver, long id) {
+		contentResolver.delete(ContentUris.withAppendedId(BookmarksProvider.FOLDERS_URI, id), null, null);
+	}
+	
+	/**
+	 * Get the ids of the bookmarks of a folder, in its sub-folders too, e.g. to delete their thumbnails with the folder.
+	 * @param contentResolver The content resolver.
+	 * @param id The folder id.
+	 * @return The bookmarks ids.
+	 */
+	public static long[] getFolderBookmarkIds(ContentResolver contentResolver, long id) {
+		long[] result = new long[0];
 		
-		// Delete child folders.
-		Cursor c = getChildrenFolders(contentResolver, id);
-		if (c != null) {
-			if (c.moveToFirst()) {
+		try {
+			Cursor c = contentResolver.query(ContentUris.withAppendedId(BookmarksProvider.FOLDERS_URI, id),
+					ID_PROJECTION,
+					BookmarksProvider.Columns.BOOKMARK + " > 0 AND " + BookmarksProvider.Columns.IS_FOLDER + " = 0",
+					null,
+					null);
+			if (c != null) {
+				result = new long[c.getCount()];
 				
-				int idIndex = c.getColumnIndex(BookmarksProvider.Columns._ID);
+				int i = 0;
+				while (c.moveToNext()) {
+					result[i++] = c.getLong(0);
+				}
 				
-				do {
-					
-					long childId = c.getLong(idIndex);
-					deleteFolder(contentResolver, childId);
-					
-				} while (c.moveToNext());				
+				c.close();
 			}
-			
-			c.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w("BookmarksWrapper", "Unable to get folder bookmarks ids: " + e.getMessage());
 		}
 		
-		// Delete content of the folder.
-		String whereClause = BookmarksProvider.Columns.PARENT_FOLDER_ID + " = " + id + " AND " + BookmarksProvider.Columns.BOOKMARK + " > 0";		
-		c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, null);
-		if (c != null) {
-			if (c.moveToFirst()) {
-				
-				int idIndex = c.getColumnIndex(BookmarksProvider.Columns._ID);
-				int visitsIndex = c.getColumnIndex(BookmarksProvider.Columns.VISITS);
+		return result;
+	}
+	
+	/**
+	 * Count the content of a folder, in its sub-folders too.
+	 * @param contentResolver The content resolver.
+	 * @param id The folder id.
+	 * @return The number of sub-folders and bookmarks of the folder, or -1 on failure.
+	 */
+	public static int getFolderContentCount(ContentResolver contentResolver, long id) {
+		int result = -1;
+		
+		try {
+			Uri uri = Uri.withAppendedPath(ContentUris.withAppendedId(BookmarksProvider.FOLDERS_URI, id), "count");
+			
+			Cursor c = contentResolver.query(uri, null, null, null, null);
+			if (c != null) {
+				if (c.moveToFirst()) {
+					result = c.getInt(c.getColumnIndex(BookmarksProvider.FOLDER_COUNT_FOLDERS)) +
+							c.getInt(c.getColumnIndex(BookmarksProvider.FOLDER_COUNT_BOOKMARKS));
+				}
 				
-				do {
-					long bookmarkId = c.getLong(idIndex);
-					
-					if (c.getInt(visitsIndex) > 0) {
-						// If this record has been visited, keep it in history, but remove its bookmark flag and its folder id.
-                        ContentValues values = new ContentValues();
-                        values.put(BookmarksProvider.Columns.BOOKMARK, 0);
-                        values.put(BookmarksProvider.Columns.PARENT_FOLDER_ID, -1);
-                        values.putNull(BookmarksProvider.Columns.CREATION_DATE);
-                        
-                        contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, BookmarksProvider.Columns._ID + " = " + bookmarkId, null);
-					} else {
-						contentResolver.delete(BookmarksProvider.BOOKMARKS_URI, BookmarksProvider.Columns._ID + " = " + bookmarkId, null);
-					}
-					
-				} while (c.moveToNext());
+				c.close();
 			}
-			
-			c.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w("BookmarksWrapper", "Unable to count folder content: " + e.getMessage());
 		}
 		
-		// Finally delete the folder.
-		contentResolver.delete(BookmarksProvider.BOOKMARKS_URI, BookmarksProvider.Columns._ID + " = " + id, null);
+		return result;
+	}
+	
+	/**
+	 * Apply a batch of operations on the bookmarks provider, in a single transaction.
+	 * @param contentResolver The content resolver.
+	 * @param operations The operations.
+	 * @return The operations results, or null if the batch failed.
+	 */
+	public static ContentProviderResult[] applyBatch(ContentResolver contentResolver, ArrayList<ContentProviderOperation> operations) {
+		try {
+			return contentResolver.applyBatch(BookmarksProvider.AUTHORITY, operations);
+		} catch (RemoteException e) {
+			e.printStackTrace();
+			Log.w("BookmarksWrapper", "Unable to apply batch: " + e.getMessage());
+		} catch (OperationApplicationException e) {
+			e.printStackTrace();
+			Log.w("BookmarksWrapper", "Unable to apply batch: " + e.getMessage());
+		}
 		
-		provider.setNotifyChanges(true);
+		return null;
 	}
 	
 	public static void deleteHistoryRecord(ContentResolver contentResolver, long id) {
-		String whereClause = BookmarksProvider.Columns._ID + " = " + id;
+		String[] whereArgs = new String[] { Long.toString(id) };
         
-		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, null);
+		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, RECORD_STATE_PROJECTION, ID_WHERE, whereArgs, null);
 		if (c != null) {
 			if (c.moveToFirst()) {
-				if (c.getInt(c.getColumnIndex(BookmarksProvider.Columns.BOOKMARK)) > 0) {
+				if (new BookmarksRowMapper(c).isBookmark()) {
 					// This is a bookmark, we cannot delete it. Instead, set visits count to 0 and visited date to null.
 					ContentValues values = new ContentValues();
                     values.put(BookmarksProvider.Columns.VISITS, 0);
                     values.putNull(BookmarksProvider.Columns.VISITED_DATE);
                     
-                    contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, whereClause, null);
+                    contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, ID_WHERE, whereArgs);
 				} else {
 					// Not a bookmark, it can be deleted.
-					contentResolver.delete(BookmarksProvider.BOOKMARKS_URI, whereClause, null);
+					contentResolver.delete(BookmarksProvider.BOOKMARKS_URI, ID_WHERE, whereArgs);
 				}
 			}
 			
@@ -387,65 +550,109 @@ public class BookmarksWrapper {
 	 * @param title The title.
 	 * @param url The url.
 	 * @param originalUrl The original url 
+	 * @param transition The visit transition, one of BookmarksProvider.TRANSITION_*.
 	 */
-	public static void updateHistory(ContentResolver contentResolver, String title, String url, String originalUrl) {
-		String[] colums = new String[] { BookmarksProvider.Columns._ID, BookmarksProvider.Columns.URL, BookmarksProvider.Columns.BOOKMARK, BookmarksProvider.Columns.VISITS };
-		
-		String escapedUrl = url != null ? DatabaseUtils.sqlEscapeString(url) : "";
-		String escapedOriginalUrl = originalUrl != null ? DatabaseUtils.sqlEscapeString(originalUrl) : "";
+	public static void updateHistory(ContentResolver contentResolver, String title, String url, String originalUrl, int transition) {
+		try {
+			contentResolver.insert(BookmarksProvider.VISITS_URI, createVisitValues(title, url, originalUrl, transition));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w("BookmarksWrapper", "Unable to update history: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Get a batch operation recording a visit, see updateHistory().
+	 * @param title The title.
+	 * @param url The url.
+	 * @param originalUrl The original url.
+	 * @param transition The visit transition, one of BookmarksProvider.TRANSITION_*.
+	 * @return The operation.
+	 */
+	public static ContentProviderOperation getUpdateHistoryOperation(String title, String url, String originalUrl, int transition) {
+		return ContentProviderOperation.newInsert(BookmarksProvider.VISITS_URI)
+				.withValues(createVisitValues(title, url, originalUrl, transition))
+				.build();
+	}
+	
+	private static ContentValues createVisitValues(String title, String url, String originalUrl, int transition) {
+		ContentValues values = new ContentValues();
+		values.put(BookmarksProvider.Columns.TITLE, title);
+		values.put(BookmarksProvider.Columns.URL, url);
+		values.put(BookmarksProvider.VISIT_ORIGINAL_URL, originalUrl);
+		values.put(BookmarksProvider.VISIT_TRANSITION, transition);
 		
-		String whereClause = BookmarksProvider.Columns.URL + " = " + escapedUrl + " OR " + BookmarksProvider.Columns.URL + " = " + escapedOriginalUrl;
-
-		Cursor cursor = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, colums, whereClause, null, null);
-
-		if (cursor != null) {
-			if (cursor.moveToFirst()) {
-
-				long id = cursor.getLong(cursor.getColumnIndex(BookmarksProvider.Columns._ID));
-				int visits = cursor.getInt(cursor.getColumnIndex(BookmarksProvider.Columns.VISITS)) + 1;
-
-				ContentValues values = new ContentValues();
-
-				// If its not a bookmark, we can update the title. If we were doing it on bookmarks, we would override the title choosen by the user.
-				if (cursor.getInt(cursor.getColumnIndex(BookmarksProvider.Columns.BOOKMARK)) != 1) {
-					values.put(BookmarksProvider.Columns.TITLE, title);
-				}
-
-				values.put(BookmarksProvider.Columns.VISITED_DATE, new Date().getTime());
-				values.put(BookmarksProvider.Columns.VISITS, visits);
-
-				contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, BookmarksProvider.Columns._ID + " = " + id, null);
-
-			} else {
-				ContentValues values = new ContentValues();
-				values.put(BookmarksProvider.Columns.TITLE, title);
-				values.put(BookmarksProvider.Columns.URL, url);
-				values.put(BookmarksProvider.Columns.VISITED_DATE, new Date().getTime());
-				values.put(BookmarksProvider.Columns.VISITS, 1);
-				values.put(BookmarksProvider.Columns.BOOKMARK, 0);
-
-				contentResolver.insert(BookmarksProvider.BOOKMARKS_URI, values);
-			}               
-
-			cursor.close();
+		return values;
+	}
+	
+	/**
+	 * Decay the frecency of history and bookmarks records for the days elapsed since the last decay.
+	 * @param contentResolver The content resolver.
+	 * @return The number of updated records.
+	 */
+	public static int decayFrecency(ContentResolver contentResolver) {
+		try {
+			Bundle result = contentResolver.call(BookmarksProvider.BOOKMARKS_URI, BookmarksProvider.METHOD_DECAY_FRECENCY, null, null);
+			if (result != null) {
+				return result.getInt(BookmarksProvider.RESULT_COUNT);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w("BookmarksWrapper", "Unable to decay frecency: " + e.getMessage());
 		}
+		
+		return 0;
 	}
 	
-	private static final String TRUNCATE_HISTORY_DELETE_WHERE_PATTERN = "(" + BookmarksProvider.Columns.BOOKMARK + " = 0 OR " + BookmarksProvider.Columns.BOOKMARK + " IS NULL) AND " + BookmarksProvider.Columns.VISITED_DATE + " < %s";
-	private static final String TRUNCATE_HISTORY_UPDATE_WHERE_PATTERN = BookmarksProvider.Columns.BOOKMARK + " = 1  AND " + BookmarksProvider.Columns.VISITED_DATE + " < %s";
+	/**
+	 * Move the thumbnails left in the database by its upgrade to the thumbnails store.
+	 * Thumbnails are decoded and encoded again: do not call it from the UI thread.
+	 * @param contentResolver The content resolver.
+	 * @return True if all the thumbnails were moved.
+	 */
+	public static boolean migrateThumbnails(ContentResolver contentResolver) {
+		try {
+			contentResolver.call(BookmarksProvider.BOOKMARKS_URI, BookmarksProvider.METHOD_MIGRATE_THUMBNAILS, null, null);
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w("BookmarksWrapper", "Unable to migrate thumbnails: " + e.getMessage());
+		}
+		
+		return false;
+	}
 	
 	/**
-	 * Remove from history values prior to now minus the number of days defined in preferences.
-	 * Only delete history items. For bookmarks, reset their visited value date and visits count.
+	 * Remove from history visits prior to now minus the number of days defined in preferences, then the oldest
+	 * visited records over the records and size caps, if set. History items left without visits are deleted, bookmarks are kept.
+	 * Deletes are done in chunks, this may take a while on a large database: do not call it from the UI thread.
 	 * @param contentResolver The content resolver.
+	 * @param prefHistorySize The history size preference, in days.
+	 * @param prefMaxHistoryRecords The maximum number of visited records preference, 0 for no cap.
+	 * @param prefMaxDatabaseSize The maximum used size of the database preference, in megabytes, 0 for no cap.
+	 * @return The retention result, see BookmarksProvider.RESULT_*, or null on failure.
 	 */
-	public static void truncateHistory(ContentResolver contentResolver, String prefHistorySize) {
+	public static Bundle truncateHistory(ContentResolver contentResolver, String prefHistorySize, String prefMaxHistoryRecords, String prefMaxDatabaseSize) {
 		int historySize;
 		try {
 			historySize = Integer.parseInt(prefHistorySize);
 		} catch (NumberFormatException e) {
 			historySize = 90;
 		}
+		
+		int maxHistoryRecords;
+		try {
+			maxHistoryRecords = Integer.parseInt(prefMaxHistoryRecords);
+		} catch (NumberFormatException e) {
+			maxHistoryRecords = 0;
+		}
+		
+		int maxDatabaseSize;
+		try {
+			maxDatabaseSize = Integer.parseInt(prefMaxDatabaseSize);
+		} catch (NumberFormatException e) {
+			maxDatabaseSize = 0;
+		}
 
 		Calendar c = Calendar.getInstance();
 		c.setTime(new Date());          
@@ -454,26 +661,28 @@ public class BookmarksWrapper {
 		c.set(Calendar.SECOND, 0);
 		c.set(Calendar.MILLISECOND, 0);
 		c.add(Calendar.DAY_OF_YEAR, - historySize);
-
-		String whereClauseDelete = String.format(TRUNCATE_HISTORY_DELETE_WHERE_PATTERN, c.getTimeInMillis());
-		String whereClauseUpdate = String.format(TRUNCATE_HISTORY_UPDATE_WHERE_PATTERN, c.getTimeInMillis());
 		
-		ContentValues updateValues = new ContentValues();
-		updateValues.putNull(BookmarksProvider.Columns.VISITED_DATE);
-		updateValues.put(BookmarksProvider.Columns.VISITS, 0);
+		Bundle extras = new Bundle();
+		extras.putLong(BookmarksProvider.EXTRA_VISITED_BEFORE, c.getTimeInMillis());
+		
+		if (maxHistoryRecords > 0) {
+			extras.putInt(BookmarksProvider.EXTRA_MAX_HISTORY_RECORDS, maxHistoryRecords);
+		}
+		
+		if (maxDatabaseSize > 0) {
+			extras.putLong(BookmarksProvider.EXTRA_MAX_DATABASE_BYTES, maxDatabaseSize * 1024L * 1024L);
+		}
 		
 		try {
-			contentResolver.delete(BookmarksProvider.BOOKMARKS_URI, whereClauseDelete, null);
-			contentResolver.update(BookmarksProvider.BOOKMARKS_URI, updateValues, whereClauseUpdate, null);
+			return contentResolver.call(BookmarksProvider.BOOKMARKS_URI, BookmarksProvider.METHOD_APPLY_RETENTION, null, extras);
 		} catch (Exception e) {
 			e.printStackTrace();
 			Log.w("BookmarksWrapper", "Unable to truncate history: " + e.getMessage());
 		}
+		
+		return null;
 	}
 	
-	private static final String UPDATE_FAVICON_WHERE_PATTERN_1 = BookmarksProvider.Columns.URL + " = %s OR " + BookmarksProvider.Columns.URL + " = %s";
-	private static final String UPDATE_FAVICON_WHERE_PATTERN_2 = BookmarksProvider.Columns.URL + " = %s";
-	
 	/**
 	 * Update the favicon in history/bookmarks database.
 	 * @param contentResolver The content resolver.
@@ -485,27 +694,8 @@ public class BookmarksWrapper {
 		if ((url != null) &&
 				(favicon != null) &&
 				(contentResolver != null)) {
-			String whereClause;
-
-			if ((originalUrl != null) &&
-					!url.equals(originalUrl)) {
-				url = DatabaseUtils.sqlEscapeString(url);
-				originalUrl = DatabaseUtils.sqlEscapeString(originalUrl);
-				
-				whereClause = String.format(UPDATE_FAVICON_WHERE_PATTERN_1, url, originalUrl);
-			} else {
-				url = DatabaseUtils.sqlEscapeString(url);
-				whereClause = String.format(UPDATE_FAVICON_WHERE_PATTERN_2, url);
-			}
-
-			ByteArrayOutputStream os = new ByteArrayOutputStream();
-			favicon.compress(Bitmap.CompressFormat.PNG, 100, os);
-
-			ContentValues values = new ContentValues();
-			values.put(BookmarksProvider.Columns.FAVICON, os.toByteArray());				
-
 			try {
-				contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, whereClause, null);
+				contentResolver.update(BookmarksProvider.BOOKMARKS_URI, createFaviconValues(favicon), getUrlsWhere(url, originalUrl), getUrlsWhereArgs(url, originalUrl));
 			} catch (Exception e) {
 				e.printStackTrace();
 				Log.w("BookmarksWrapper", "Unable to update favicon: " + e.getMessage());
@@ -513,74 +703,156 @@ public class BookmarksWrapper {
 		}
 	}
 	
-	private static final String BOOKMARK_BY_URL_WHERE_PATTERN_1 = "(" + BookmarksProvider.Columns.URL + " = %s OR " + BookmarksProvider.Columns.URL + " = %s) AND " + BookmarksProvider.Columns.BOOKMARK + " = 1";
-	private static final String BOOKMARK_BY_URL_WHERE_PATTERN_2 = BookmarksProvider.Columns.URL + " = %s AND " + BookmarksProvider.Columns.BOOKMARK + " = 1";
+	/**
+	 * Get a batch operation updating a favicon, see updateFavicon().
+	 * @param url The url.
+	 * @param originalUrl The original url.
+	 * @param favicon The favicon.
+	 * @return The operation.
+	 */
+	public static ContentProviderOperation getUpdateFaviconOperation(String url, String originalUrl, Bitmap favicon) {
+		return ContentProviderOperation.newUpdate(BookmarksProvider.BOOKMARKS_URI)
+				.withValues(createFaviconValues(favicon))
+				.withSelection(getUrlsWhere(url, originalUrl), getUrlsWhereArgs(url, originalUrl))
+				.build();
+	}
+	
+	/**
+	 * Get the stored favicon of an url.
+	 * @param contentResolver The content resolver.
+	 * @param url The url.
+	 * @return The favicon data, or null.
+	 */
+	public static byte[] getFavicon(ContentResolver contentResolver, String url) {
+		byte[] result = null;
+		
+		Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, new String[] { BookmarksProvider.Columns.FAVICON }, URL_WHERE, new String[] { url }, null);
+		if (c != null) {
+			if (c.moveToFirst()) {
+				result = c.getBlob(0);
+			}
+			
+			c.close();
+		}
+		
+		return result;
+	}
+	
+	private static ContentValues createFaviconValues(Bitmap favicon) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		favicon.compress(Bitmap.CompressFormat.PNG, 100, os);
+		
+		ContentValues values = new ContentValues();
+		values.put(BookmarksProvider.Columns.FAVICON, os.toByteArray());
+		
+		return values;
+	}
+	
+	private static String getUrlsWhere(String url, String originalUrl) {
+		if ((originalUrl != null) &&
+				!url.equals(originalUrl)) {
+			return URLS_WHERE;
+		} else {
+			return URL_WHERE;
+		}
+	}
+	
+	private static String[] getUrlsWhereArgs(String url, String originalUrl) {
+		if ((originalUrl != null) &&
+				!url.equals(originalUrl)) {
+			return new String[] { url, originalUrl };
+		} else {
+			return new String[] { url };
+		}
+	}
+	
+	private static final String BOOKMARK_BY_URLS_WHERE = "(" + URLS_WHERE + ") AND " + BookmarksProvider.Columns.BOOKMARK + " = 1";
+	private static final String BOOKMARK_BY_URL_WHERE = URL_WHERE + " AND " + BookmarksProvider.Columns.BOOKMARK + " = 1";
 	
-	public static void updateThumbnail(ContentResolver contentResolver, String url, String originalUrl, Bitmap thumbnail) {
+	/**
+	 * Get the ids of the bookmarks of an url, e.g. to store their thumbnail.
+	 * @param contentResolver The content resolver.
+	 * @param url The url.
+	 * @param originalUrl The original url, before redirections. May be null.
+	 * @return The bookmarks ids, empty if the url is not bookmarked.
+	 */
+	public static long[] getBookmarkIds(ContentResolver contentResolver, String url, String originalUrl) {
+		long[] result = new long[0];
+		
 		if ((url != null) &&
-				(thumbnail != null) &&
 				(contentResolver != null)) {
 			String whereClause;
+			String[] whereArgs;
 
 			if ((originalUrl != null) &&
 					!url.equals(originalUrl)) {
-				url = DatabaseUtils.sqlEscapeString(url);
-				originalUrl = DatabaseUtils.sqlEscapeString(originalUrl);
-				
-				whereClause = String.format(BOOKMARK_BY_URL_WHERE_PATTERN_1, url, originalUrl);
+				whereClause = BOOKMARK_BY_URLS_WHERE;
+				whereArgs = new String[] { url, originalUrl };
 			} else {
-				url = DatabaseUtils.sqlEscapeString(url);				
-				whereClause = String.format(BOOKMARK_BY_URL_WHERE_PATTERN_2, url);
+				whereClause = BOOKMARK_BY_URL_WHERE;
+				whereArgs = new String[] { url };
 			}
 
-			ByteArrayOutputStream os = new ByteArrayOutputStream();
-			thumbnail.compress(Bitmap.CompressFormat.PNG, 100, os);
-
-			ContentValues values = new ContentValues();
-			values.put(BookmarksProvider.Columns.THUMBNAIL, os.toByteArray());				
-
 			try {
-				contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, whereClause, null);
+				Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, ID_PROJECTION, whereClause, whereArgs, null);
+				if (c != null) {
+					result = new long[c.getCount()];
+					
+					int i = 0;
+					while (c.moveToNext()) {
+						result[i++] = c.getLong(0);
+					}
+					
+					c.close();
+				}
 			} catch (Exception e) {
 				e.printStackTrace();
-				Log.w("BookmarksWrapper", "Unable to update thumbnail: " + e.getMessage());
+				Log.w("BookmarksWrapper", "Unable to get bookmarks ids: " + e.getMessage());
 			}
 		}
-	}	
+		
+		return result;
+	}
 	
 	public static boolean urlHasBookmark(ContentResolver contentResolver, String url, String originalUrl) {
 		if ((url != null) &&
 				(contentResolver != null)) {
 			String whereClause;
+			String[] whereArgs;
 
 			if ((originalUrl != null) &&
 					!url.equals(originalUrl)) {
-				url = DatabaseUtils.sqlEscapeString(url);
-				originalUrl = DatabaseUtils.sqlEscapeString(originalUrl);
-				
-				whereClause = String.format(BOOKMARK_BY_URL_WHERE_PATTERN_1, url, originalUrl);
+				whereClause = BOOKMARK_BY_URLS_WHERE;
+				whereArgs = new String[] { url, originalUrl };
 			} else {
-				url = DatabaseUtils.sqlEscapeString(url);
-				whereClause = String.format(BOOKMARK_BY_URL_WHERE_PATTERN_2, url);
+				whereClause = BOOKMARK_BY_URL_WHERE;
+				whereArgs = new String[] { url };
 			}
 
-			Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, null);
-
-			return c != null && c.getCount() > 0;
+			Cursor c = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, ID_PROJECTION, whereClause, whereArgs, null);
+			if (c != null) {
+				boolean result = c.moveToFirst();
+				c.close();
+				
+				return result;
+			}
+			
+			return false;
 		} else {
 			return false;
 		}
 	}
 	
-	private static final String TOGGLE_BOOKMARK_WHERE_PATTERN =  BookmarksProvider.Columns._ID + " = %s";
-	
 	public static void toggleBookmark(ContentResolver contentResolver, long id, boolean bookmark) {
-		String[] colums = new String[] { BookmarksProvider.Columns._ID };
-		String whereClause = String.format(TOGGLE_BOOKMARK_WHERE_PATTERN, id);
+		String[] whereArgs = new String[] { Long.toString(id) };
 
-		Cursor cursor = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, colums, whereClause, null, null);
+		Cursor cursor = contentResolver.query(BookmarksProvider.BOOKMARKS_URI, ID_PROJECTION, ID_WHERE, whereArgs, null);
 		boolean recordExists = (cursor != null) && (cursor.moveToFirst());
 		
+		if (cursor != null) {
+			cursor.close();
+		}
+		
 		if (recordExists) {
 			ContentValues values = new ContentValues();
 			
@@ -591,10 +863,9 @@ public class BookmarksWrapper {
 				values.put(BookmarksProvider.Columns.CREATION_DATE, new Date().getTime());
 			} else {
 				values.putNull(BookmarksProvider.Columns.CREATION_DATE);
-				values.putNull(BookmarksProvider.Columns.THUMBNAIL);				
 			}
 			
-			contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, whereClause, null);
+			contentResolver.update(BookmarksProvider.BOOKMARKS_URI, values, ID_WHERE, whereArgs);
 		}
 	}
 	
@@ -609,6 +880,25 @@ public class BookmarksWrapper {
 	 * @param bookmark The bookmark flag.
 	 */
 	public static void insertRawRecord(ContentResolver contentResolver, String title, String url, int visits, long visitedDate, long creationDate, int bookmark) {
+		contentResolver.insert(BookmarksProvider.BOOKMARKS_URI, createRawRecordValues(title, url, visits, visitedDate, creationDate, bookmark));
+	}
+	
+	public static void fillDefaultBookmaks(ContentResolver contentResolver, String[] titles, String[] urls) {
+		int size = Math.min(titles.length, urls.length);
+		long currentDate = new Date().getTime();
+		
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		
+		for (int i = 0; i < size; i++) {
+			operations.add(ContentProviderOperation.newInsert(BookmarksProvider.BOOKMARKS_URI)
+					.withValues(createRawRecordValues(titles[i], urls[i], 0, currentDate, currentDate, 1))
+					.build());
+		}
+		
+		applyBatch(contentResolver, operations);
+	}
+	
+	private static ContentValues createRawRecordValues(String title, String url, int visits, long visitedDate, long creationDate, int bookmark) {
 		ContentValues values = new ContentValues();
 		values.put(BookmarksProvider.Columns.TITLE, title);
 		values.put(BookmarksProvider.Columns.URL, url);
@@ -632,25 +922,15 @@ public class BookmarksWrapper {
 			values.put(BookmarksProvider.Columns.BOOKMARK, 0);
 		}
 		
-		contentResolver.insert(BookmarksProvider.BOOKMARKS_URI, values);
+		return values;
 	}
 	
-	public static void fillDefaultBookmaks(ContentResolver contentResolver, String[] titles, String[] urls) {
-		int size = Math.min(titles.length, urls.length);
-		long currentDate = new Date().getTime();
-		
-		for (int i = 0; i < size; i++) {
-			insertRawRecord(contentResolver, titles[i], urls[i], 0, currentDate, currentDate, 1);
-		}
-	}
-	
-	private static final String SUGGESTIONS_PATTERN = "%%%s%%";
-	private static final String SUGGESTIONS_WHERE_PATTERN = BookmarksProvider.Columns.TITLE + " LIKE %s OR " + BookmarksProvider.Columns.URL  + " LIKE %s";
-	private static final String SUGGESTIONS_ORDER = BookmarksProvider.Columns.VISITED_DATE + " DESC, " + BookmarksProvider.Columns.BOOKMARK + " DESC, " + BookmarksProvider.Columns.TITLE + " ASC";
+	private static final int SUGGESTIONS_LIMIT = 20;
+	private static final String SUGGESTIONS_ORDER = BookmarksProvider.Columns.FRECENCY + " DESC, " + BookmarksProvider.Columns.TITLE + " ASC";
 	
 	/**
      * Get a cursor for suggestions, given a search pattern.
-     * Search on history and bookmarks, on title and url.
+     * Search on history and bookmarks, on the words of titles and urls starting with the pattern words.
      * @param contentResolver The content resolver.
      * @param pattern The pattern to search for.
      * @return A cursor of suggestions.
@@ -659,12 +939,9 @@ public class BookmarksWrapper {
 		if ((pattern != null) &&
     			(pattern.length() > 0)) {
 			
-			String sqlPattern = DatabaseUtils.sqlEscapeString(String.format(SUGGESTIONS_PATTERN, pattern));
-			String whereClause = String.format(SUGGESTIONS_WHERE_PATTERN, sqlPattern, sqlPattern);
-			
-			return contentResolver.query(BookmarksProvider.BOOKMARKS_URI,
-    				HISTORY_BOOKMARKS_PROJECTION,
-    				whereClause,
+			return contentResolver.query(getSearchUri(pattern, SUGGESTIONS_LIMIT),
+    				URL_SUGGESTIONS_PROJECTION,
+    				null,
     				null,
     				SUGGESTIONS_ORDER);
 		}
@@ -672,11 +949,11 @@ public class BookmarksWrapper {
 		return null;
 	}
 	
-	private static final String CHILDREN_FOLDERS_WHERE_PATTERN = BookmarksProvider.Columns.IS_FOLDER + " > 0 AND " + BookmarksProvider.Columns.PARENT_FOLDER_ID + " = %S";
-    
-    private static Cursor getChildrenFolders(ContentResolver contentResolver, long folderId) {
-		String whereClause = String.format(CHILDREN_FOLDERS_WHERE_PATTERN, folderId);
-		return contentResolver.query(BookmarksProvider.BOOKMARKS_URI, HISTORY_BOOKMARKS_PROJECTION, whereClause, null, null);
+	private static Uri getSearchUri(String query, int limit) {
+		return BookmarksProvider.SEARCH_URI.buildUpon()
+				.appendQueryParameter(BookmarksProvider.SEARCH_QUERY, query)
+				.appendQueryParameter(BookmarksProvider.SEARCH_LIMIT, Integer.toString(limit))
+				.build();
 	}
 
 }
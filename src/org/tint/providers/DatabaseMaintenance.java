@@ -0,0 +1,148 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.providers;
+
+import java.io.File;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Maintenance of the providers databases: integrity check, statistics for the query planner,
+ * incremental vacuum and WAL checkpoint. Providers run it from their call() method.
+ */
+public class DatabaseMaintenance {
+	
+	/**
+	 * Provider method running the maintenance.
+	 */
+	public static final String METHOD_RUN_MAINTENANCE = "runMaintenance";
+	
+	/**
+	 * Extra of METHOD_RUN_MAINTENANCE: true to convert a database created without incremental vacuum.
+	 * The conversion rebuilds the whole database, blocking writes meanwhile: it should be asked only once.
+	 */
+	public static final String EXTRA_CONVERT_AUTO_VACUUM = "convertAutoVacuum";
+	
+	/**
+	 * Keys of the bundle returned by the maintenance.
+	 */
+	public static final String RESULT_INTEGRITY_OK = "integrityOk";
+	public static final String RESULT_FILE_SIZE = "fileSize";
+	public static final String RESULT_FREE_PAGES = "freePages";
+	public static final String RESULT_DURATION = "duration";
+	
+	private static final String AUTO_VACUUM_INCREMENTAL = "2";
+	
+	/**
+	 * Maximum number of free pages returned to the file system by a run.
+	 */
+	private static final int INCREMENTAL_VACUUM_PAGES = 1024;
+	
+	/**
+	 * Run the maintenance. A database failing the integrity check is not modified.
+	 * Free pages are only returned to the file system on a database with incremental vacuum.
+	 * @param db The database.
+	 * @param extras The maintenance options, see EXTRA_CONVERT_AUTO_VACUUM. May be null.
+	 * @return The maintenance result.
+	 */
+	static Bundle run(SQLiteDatabase db, Bundle extras) {
+		long start = SystemClock.elapsedRealtime();
+		
+		boolean integrityOk = "ok".equals(executePragma(db, "quick_check"));
+		
+		if (integrityOk) {
+			try {
+				db.execSQL("ANALYZE;");
+				
+				if (AUTO_VACUUM_INCREMENTAL.equals(executePragma(db, "auto_vacuum"))) {
+					executePragma(db, "incremental_vacuum(" + INCREMENTAL_VACUUM_PAGES + ")");
+				} else if ((extras != null) &&
+						(extras.getBoolean(EXTRA_CONVERT_AUTO_VACUUM))) {
+					enableIncrementalVacuum(db);
+				}
+				
+				if ("wal".equalsIgnoreCase(executePragma(db, "journal_mode"))) {
+					executePragma(db, "wal_checkpoint");
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				Log.w("DatabaseMaintenance", "Unable to run maintenance: " + e.getMessage());
+			}
+		} else {
+			Log.w("DatabaseMaintenance", "Integrity check failed on " + db.getPath());
+		}
+		
+		Bundle result = new Bundle();
+		result.putBoolean(RESULT_INTEGRITY_OK, integrityOk);
+		result.putLong(RESULT_FILE_SIZE, new File(db.getPath()).length());
+		
+		try {
+			result.putLong(RESULT_FREE_PAGES, Long.parseLong(executePragma(db, "freelist_count")));
+		} catch (NumberFormatException e) {
+			result.putLong(RESULT_FREE_PAGES, -1);
+		}
+		
+		result.putLong(RESULT_DURATION, SystemClock.elapsedRealtime() - start);
+		
+		return result;
+	}
+	
+	/**
+	 * Enable incremental vacuum. The mode only applies to a database without tables: as Android creates its
+	 * metadata table on open, the database is then rebuilt with a full vacuum. Must not be called in a transaction.
+	 * On failure, e.g. without enough disk space for the vacuum, the database is left as is.
+	 * @param db The database.
+	 */
+	static void enableIncrementalVacuum(SQLiteDatabase db) {
+		try {
+			executePragma(db, "auto_vacuum = INCREMENTAL");
+			
+			if (!AUTO_VACUUM_INCREMENTAL.equals(executePragma(db, "auto_vacuum"))) {
+				db.execSQL("VACUUM;");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w("DatabaseMaintenance", "Unable to enable incremental vacuum: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Run a pragma, stepping through all its rows: some pragmas, like incremental_vacuum, work one row at a time.
+	 * @param db The database.
+	 * @param pragma The pragma, without the PRAGMA keyword.
+	 * @return The first column of the first row, or null.
+	 */
+	static String executePragma(SQLiteDatabase db, String pragma) {
+		String result = null;
+		
+		Cursor c = db.rawQuery("PRAGMA " + pragma, null);
+		if (c != null) {
+			if ((c.getCount() > 0) &&
+					(c.moveToFirst())) {
+				result = c.getString(0);
+			}
+			
+			c.close();
+		}
+		
+		return result;
+	}
+
+}
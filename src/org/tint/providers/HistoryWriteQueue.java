@@ -0,0 +1,364 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.providers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.tint.tasks.HistoryRetentionTask;
+import org.tint.tasks.TaskExecutors;
+import org.tint.utils.FaviconCache;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+/**
+ * Write-behind queue for visits and favicons. A page load often reports its title and its icon several times:
+ * events are merged per url, and written in a single batch after a short delay, or when the queue is flushed.
+ * Favicons are usually the same on every page of a site: a favicon whose fingerprint matches the last one
+ * stored for its host is neither encoded nor written.
+ */
+public class HistoryWriteQueue {
+	
+	private static final long FLUSH_DELAY = 2000;
+	
+	/**
+	 * Number of hosts whose last stored favicon fingerprint is kept.
+	 */
+	private static final int FAVICON_FINGERPRINTS_SIZE = 256;
+	
+	/**
+	 * Pending writes for an url.
+	 */
+	private static class PendingWrite {
+		private String mUrl;
+		private String mOriginalUrl;
+		
+		private boolean mVisited = false;
+		private String mTitle = null;
+		private int mTransition = BookmarksProvider.TRANSITION_LINK;
+		
+		private Bitmap mFavicon = null;
+		private long mFaviconFingerprint = 0;
+		
+		public PendingWrite(String url, String originalUrl) {
+			mUrl = url;
+			mOriginalUrl = originalUrl;
+		}
+		
+		public void setOriginalUrl(String originalUrl) {
+			if (originalUrl != null) {
+				mOriginalUrl = originalUrl;
+			}
+		}
+	}
+	
+	private Context mContext;
+	private Handler mHandler;
+	private Executor mExecutor;
+	
+	private Map<String, PendingWrite> mPendingWrites;
+	private boolean mFlushScheduled;
+	
+	/**
+	 * Fingerprint of the last stored favicon, by host.
+	 */
+	private LruCache<String, Long> mFaviconFingerprints;
+	
+	private int mEventCount;
+	private int mFlushCount;
+	private int mOperationCount;
+	private int mLastBatchSize;
+	private int mSkippedFaviconCount;
+	
+	private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+	
+	private final Runnable mRetentionRunnable = new Runnable() {
+		@Override
+		public void run() {
+			HistoryRetentionTask.startIfNeeded(mContext);
+		}
+	};
+	
+	public HistoryWriteQueue(Context context) {
+		mContext = context.getApplicationContext();
+		mHandler = new Handler(Looper.getMainLooper());
+		mExecutor = TaskExecutors.WRITES;
+		
+		mPendingWrites = new LinkedHashMap<String, PendingWrite>();
+		mFlushScheduled = false;
+		
+		mFaviconFingerprints = new LruCache<String, Long>(FAVICON_FINGERPRINTS_SIZE);
+		
+		mEventCount = 0;
+		mFlushCount = 0;
+		mOperationCount = 0;
+		mLastBatchSize = 0;
+		mSkippedFaviconCount = 0;
+	}
+	
+	/**
+	 * Queue a visit. Visits of the same url are merged: the last non-empty title is kept, and the visit
+	 * is recorded as typed if one of them was typed.
+	 * @param title The page title.
+	 * @param url The page url.
+	 * @param originalUrl The page original url.
+	 * @param transition The visit transition, one of BookmarksProvider.TRANSITION_*.
+	 */
+	public synchronized void enqueueVisit(String title, String url, String originalUrl, int transition) {
+		if (TextUtils.isEmpty(url)) {
+			return;
+		}
+		
+		PendingWrite write = getPendingWrite(url, originalUrl);
+		
+		if (!write.mVisited) {
+			write.mVisited = true;
+			write.mTransition = transition;
+		} else if (transition == BookmarksProvider.TRANSITION_TYPED) {
+			write.mTransition = transition;
+		}
+		
+		if (!TextUtils.isEmpty(title)) {
+			write.mTitle = title;
+		}
+		
+		scheduleFlush();
+	}
+	
+	/**
+	 * Queue a favicon update. Only the last favicon of an url is written, and only if it differs
+	 * from the last favicon stored for the url host.
+	 * @param url The page url.
+	 * @param originalUrl The page original url.
+	 * @param favicon The favicon.
+	 */
+	public void enqueueFavicon(String url, String originalUrl, Bitmap favicon) {
+		if ((TextUtils.isEmpty(url)) ||
+				(favicon == null)) {
+			return;
+		}
+		
+		long fingerprint = FaviconCache.getFingerprint(favicon);
+		Long storedFingerprint = mFaviconFingerprints.get(getHost(url));
+		
+		synchronized (this) {
+			if ((storedFingerprint != null) &&
+					(storedFingerprint == fingerprint)) {
+				mEventCount++;
+				mSkippedFaviconCount++;
+				
+				// A different favicon may have been queued for this url meanwhile.
+				PendingWrite write = mPendingWrites.get(url);
+				if (write != null) {
+					write.mFavicon = null;
+				}
+			} else {
+				PendingWrite write = getPendingWrite(url, originalUrl);
+				write.mFavicon = favicon;
+				write.mFaviconFingerprint = fingerprint;
+				
+				scheduleFlush();
+			}
+		}
+	}
+	
+	/**
+	 * Write the pending events now, in the background. Visits are written before favicons,
+	 * so that the favicon of a new history record finds it.
+	 */
+	public void flush() {
+		final ArrayList<PendingWrite> writes;
+		
+		synchronized (this) {
+			mHandler.removeCallbacks(mFlushRunnable);
+			mFlushScheduled = false;
+			
+			if (mPendingWrites.isEmpty()) {
+				return;
+			}
+			
+			writes = new ArrayList<PendingWrite>(mPendingWrites.values());
+			mPendingWrites.clear();
+		}
+		
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				write(writes);
+			}
+		});
+	}
+	
+	/**
+	 * Forget the stored favicons fingerprints, e.g. after records have been deleted.
+	 */
+	public void clearFaviconFingerprints() {
+		mFaviconFingerprints.evictAll();
+	}
+	
+	/**
+	 * @return The number of queued events, since the queue creation.
+	 */
+	public synchronized int getEventCount() {
+		return mEventCount;
+	}
+	
+	/**
+	 * @return The number of favicons neither encoded nor written because they were already stored, since the queue creation.
+	 */
+	public synchronized int getSkippedFaviconCount() {
+		return mSkippedFaviconCount;
+	}
+	
+	/**
+	 * @return The number of written batches, since the queue creation.
+	 */
+	public synchronized int getFlushCount() {
+		return mFlushCount;
+	}
+	
+	/**
+	 * @return The number of written operations, since the queue creation.
+	 */
+	public synchronized int getOperationCount() {
+		return mOperationCount;
+	}
+	
+	/**
+	 * @return The number of operations of the last written batch.
+	 */
+	public synchronized int getLastBatchSize() {
+		return mLastBatchSize;
+	}
+	
+	private PendingWrite getPendingWrite(String url, String originalUrl) {
+		mEventCount++;
+		
+		PendingWrite write = mPendingWrites.get(url);
+		if (write == null) {
+			write = new PendingWrite(url, originalUrl);
+			mPendingWrites.put(url, write);
+		} else {
+			write.setOriginalUrl(originalUrl);
+		}
+		
+		return write;
+	}
+	
+	private void scheduleFlush() {
+		if (!mFlushScheduled) {
+			mFlushScheduled = true;
+			mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY);
+		}
+	}
+	
+	private void write(ArrayList<PendingWrite> writes) {
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		ArrayList<PendingWrite> favicons = new ArrayList<PendingWrite>();
+		boolean visited = false;
+		int skipped = 0;
+		
+		for (PendingWrite write : writes) {
+			if (write.mVisited) {
+				operations.add(BookmarksWrapper.getUpdateHistoryOperation(write.mTitle, write.mUrl, write.mOriginalUrl, write.mTransition));
+				visited = true;
+			}
+		}
+		
+		for (PendingWrite write : writes) {
+			if (write.mFavicon != null) {
+				if (isStoredFavicon(write.mUrl, write.mFaviconFingerprint)) {
+					skipped++;
+				} else {
+					operations.add(BookmarksWrapper.getUpdateFaviconOperation(write.mUrl, write.mOriginalUrl, write.mFavicon));
+					favicons.add(write);
+				}
+			}
+		}
+		
+		ContentProviderResult[] results = null;
+		if (!operations.isEmpty()) {
+			results = BookmarksWrapper.applyBatch(mContext.getContentResolver(), operations);
+		}
+		
+		if (results != null) {
+			for (PendingWrite write : favicons) {
+				mFaviconFingerprints.put(getHost(write.mUrl), write.mFaviconFingerprint);
+			}
+		}
+		
+		synchronized (this) {
+			mFlushCount++;
+			mOperationCount += operations.size();
+			mLastBatchSize = operations.size();
+			mSkippedFaviconCount += skipped;
+		}
+		
+		if (visited) {
+			mHandler.post(mRetentionRunnable);
+		}
+	}
+	
+	/**
+	 * Check if a favicon is the one stored for its url. The first time a host is seen, its fingerprint
+	 * is read back from the store.
+	 * @param url The page url.
+	 * @param fingerprint The favicon fingerprint.
+	 * @return True if the favicon is already stored.
+	 */
+	private boolean isStoredFavicon(String url, long fingerprint) {
+		String host = getHost(url);
+		
+		Long storedFingerprint = mFaviconFingerprints.get(host);
+		if (storedFingerprint == null) {
+			byte[] data = BookmarksWrapper.getFavicon(mContext.getContentResolver(), url);
+			if (data != null) {
+				Bitmap stored = BitmapFactory.decodeByteArray(data, 0, data.length);
+				if (stored != null) {
+					storedFingerprint = FaviconCache.getFingerprint(stored);
+					mFaviconFingerprints.put(host, storedFingerprint);
+					
+					stored.recycle();
+				}
+			}
+		}
+		
+		return (storedFingerprint != null) &&
+				(storedFingerprint == fingerprint);
+	}
+	
+	private static String getHost(String url) {
+		String host = Uri.parse(url).getHost();
+		return TextUtils.isEmpty(host) ? url : host;
+	}
+
+}
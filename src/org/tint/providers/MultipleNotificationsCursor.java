@@ -0,0 +1,104 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.providers;
+
+import android.content.ContentResolver;
+import android.database.ContentObservable;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+
+/**
+ * A cursor notifying its observers of changes on several uris.
+ * Cursor.setNotificationUri() only allows one uri.
+ */
+class MultipleNotificationsCursor extends CursorWrapper {
+	
+	private ContentResolver mContentResolver;
+	
+	private ContentObservable mContentObservable;
+	private ContentObserver mChangeObserver;
+	
+	private boolean mClosed;
+	
+	public MultipleNotificationsCursor(Cursor cursor, ContentResolver contentResolver, Uri[] notificationUris) {
+		super(cursor);
+		
+		mContentResolver = contentResolver;
+		mContentObservable = new ContentObservable();
+		mClosed = false;
+		
+		mChangeObserver = new ContentObserver(null) {
+			@Override
+			public boolean deliverSelfNotifications() {
+				return true;
+			}
+			
+			@Override
+			public void onChange(boolean selfChange) {
+				onChange(selfChange, null);
+			}
+			
+			@Override
+			public void onChange(boolean selfChange, Uri uri) {
+				notifyChange(uri);
+			}
+		};
+		
+		for (Uri uri : notificationUris) {
+			mContentResolver.registerContentObserver(uri, true, mChangeObserver);
+		}
+	}
+	
+	@Override
+	public void registerContentObserver(ContentObserver observer) {
+		mContentObservable.registerObserver(observer);
+	}
+	
+	@Override
+	public void unregisterContentObserver(ContentObserver observer) {
+		// Like AbstractCursor, observers may already have been removed by close().
+		if (!mClosed) {
+			mContentObservable.unregisterObserver(observer);
+		}
+	}
+	
+	/**
+	 * Notify the observers of a change. The changed uri is only known from API 16.
+	 * @param uri The changed uri, or null.
+	 */
+	@SuppressWarnings("deprecation")
+	private void notifyChange(Uri uri) {
+		if (android.os.Build.VERSION.SDK_INT > 15) {
+			mContentObservable.dispatchChange(false, uri);
+		} else {
+			mContentObservable.dispatchChange(false);
+		}
+	}
+	
+	@Override
+	public void close() {
+		super.close();
+		
+		if (!mClosed) {
+			mClosed = true;
+			mContentResolver.unregisterContentObserver(mChangeObserver);
+			mContentObservable.unregisterAll();
+		}
+	}
+
+}
@@ -21,11 +21,13 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 
 public class SslExceptionsProvider extends ContentProvider {
 	
@@ -70,6 +72,15 @@ public class SslExceptionsProvider extends ContentProvider {
 		sUriMatcher.addURI(AUTHORITY, SSL_EXCEPTIONS_TABLE + "/#", EXCEPTION_BY_ID);
 	}
 	
+	@Override
+	public Bundle call(String method, String arg, Bundle extras) {
+		if (DatabaseMaintenance.METHOD_RUN_MAINTENANCE.equals(method)) {
+			return DatabaseMaintenance.run(mDb, extras);
+		}
+		
+		throw new IllegalArgumentException("Unknown method " + method);
+	}
+	
 	@Override
 	public int delete(Uri uri, String selection, String[] selectionArgs) {
 		int count = 0;
@@ -137,7 +148,8 @@ public class SslExceptionsProvider extends ContentProvider {
 			break;
 		case EXCEPTION_BY_ID:
 			qb.setTables(SSL_EXCEPTIONS_TABLE);
-			qb.appendWhere(Columns._ID + " = " + uri.getPathSegments().get(1));
+			qb.appendWhere(Columns._ID + " = ?");
+			selectionArgs = DatabaseUtils.appendSelectionArgs(new String[] { uri.getPathSegments().get(1) }, selectionArgs);
 			break;		
 		default: throw new IllegalArgumentException("Unknown URI " + uri);
 		}
@@ -165,6 +177,8 @@ public class SslExceptionsProvider extends ContentProvider {
 	}
 	
 	private static class DatabaseHelper extends SQLiteOpenHelper {
+		
+		private boolean mCreated = false;
 
 		public DatabaseHelper(Context context) {
 			super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -172,8 +186,23 @@ public class SslExceptionsProvider extends ContentProvider {
 
 		@Override
 		public void onCreate(SQLiteDatabase db) {
+			DatabaseMaintenance.executePragma(db, "auto_vacuum = INCREMENTAL");
+			mCreated = true;
+			
 			db.execSQL(SSL_EXCEPTION_TABLE_CREATE);
 		}
+		
+		@Override
+		public void onOpen(SQLiteDatabase db) {
+			super.onOpen(db);
+			
+			// See BookmarksProvider.DatabaseHelper.onOpen().
+			if ((mCreated) &&
+					(!db.isReadOnly())) {
+				DatabaseMaintenance.enableIncrementalVacuum(db);
+				mCreated = false;
+			}
+		}
 
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) { }		
@@ -44,6 +44,9 @@ public class SslExceptionsWrapper {
 	private static final int SSL_INVALID = 16;
 	private static final int SSL_DATE_INVALID = 32;
 	
+	private static final String ID_WHERE = SslExceptionsProvider.Columns._ID + " = ?";
+	private static final String AUTHORITY_WHERE = SslExceptionsProvider.Columns.AUTHORITY + " = ?";
+	
 	public static CursorLoader getSslErrorAuthoritiesCursorLoader(Context context) {
 		return new CursorLoader(context, SslExceptionsProvider.SSL_EXCEPTIONS_URI, SSL_EXCEPTIONS_PROJECTION, null, null, null);
 	}
@@ -51,9 +54,7 @@ public class SslExceptionsWrapper {
 	public static int getStatusForAuthority(ContentResolver contentResolver, String authority) {
 		int result = AUTHORITY_UNKNOWN;
 		
-		String whereClause = SslExceptionsProvider.Columns.AUTHORITY + " = \"" + authority + "\"";
-		
-		Cursor c = contentResolver.query(SslExceptionsProvider.SSL_EXCEPTIONS_URI, SSL_EXCEPTIONS_PROJECTION, whereClause, null, null);
+		Cursor c = contentResolver.query(SslExceptionsProvider.SSL_EXCEPTIONS_URI, SSL_EXCEPTIONS_PROJECTION, AUTHORITY_WHERE, new String[] { authority }, null);
 		if (c != null) {
 			if (c.moveToFirst()) {
 				if (c.getInt(c.getColumnIndex(SslExceptionsProvider.Columns.ALLOW)) > 0) {
@@ -73,13 +74,11 @@ public class SslExceptionsWrapper {
 		long id = getIdForAuthority(contentResolver, authority);
 		
 		if (id != -1) {
-			String whereClause = SslExceptionsProvider.Columns._ID + " = " + id;
-			
 			ContentValues values = new ContentValues();
 			values.put(SslExceptionsProvider.Columns.REASON, reason);
 			values.put(SslExceptionsProvider.Columns.ALLOW, allow ? 1 : 0);
 			
-			contentResolver.update(SslExceptionsProvider.SSL_EXCEPTIONS_URI, values, whereClause, null);			
+			contentResolver.update(SslExceptionsProvider.SSL_EXCEPTIONS_URI, values, ID_WHERE, new String[] { Long.toString(id) });
 		} else {		
 			ContentValues values = new ContentValues();
 			values.put(SslExceptionsProvider.Columns.AUTHORITY, authority);
@@ -91,18 +90,14 @@ public class SslExceptionsWrapper {
 	}
 	
 	public static void toggleSslException(ContentResolver contentResolver, long id, boolean allow) {
-		String whereClause = SslExceptionsProvider.Columns._ID + " = " + id;
-		
 		ContentValues values = new ContentValues();
 		values.put(SslExceptionsProvider.Columns.ALLOW, allow ? 1 : 0);
 		
-		contentResolver.update(SslExceptionsProvider.SSL_EXCEPTIONS_URI, values, whereClause, null);
+		contentResolver.update(SslExceptionsProvider.SSL_EXCEPTIONS_URI, values, ID_WHERE, new String[] { Long.toString(id) });
 	}
 	
 	public static void removeSslException(ContentResolver contentResolver, long id) {
-		String whereClause = SslExceptionsProvider.Columns._ID + " = " + id;
-		
-		contentResolver.delete(SslExceptionsProvider.SSL_EXCEPTIONS_URI, whereClause, null);
+		contentResolver.delete(SslExceptionsProvider.SSL_EXCEPTIONS_URI, ID_WHERE, new String[] { Long.toString(id) });
 	}
 	
 	public static String sslErrorReasonToString(Context context, int reason) {
@@ -188,8 +183,7 @@ public class SslExceptionsWrapper {
 	private static long getIdForAuthority(ContentResolver contentResolver, String authority) {
 		long result = -1;
 		
-		String whereClause = SslExceptionsProvider.Columns.AUTHORITY + " = \"" + authority + "\"";		
-		Cursor c = contentResolver.query(SslExceptionsProvider.SSL_EXCEPTIONS_URI, SSL_EXCEPTIONS_PROJECTION, whereClause, null, null);
+		Cursor c = contentResolver.query(SslExceptionsProvider.SSL_EXCEPTIONS_URI, SSL_EXCEPTIONS_PROJECTION, AUTHORITY_WHERE, new String[] { authority }, null);
 		
 		if (c != null) {
 			if (c.moveToFirst()) {
@@ -0,0 +1,144 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.providers;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * A cache of compiled statements, keyed on their SQL.
+ * A statement is owned by the thread which acquired it until it is released, so that
+ * concurrent provider calls never bind the same statement. Statements must therefore
+ * only be built from constant SQL, with their values bound as arguments.
+ */
+class StatementCache {
+	
+	private SQLiteDatabase mDb;
+	private int mMaxSize;
+	
+	private Map<String, List<SQLiteStatement>> mStatements;
+	private int mSize;
+	
+	private long mHits;
+	private long mMisses;
+	
+	/**
+	 * Constructor.
+	 * @param db The database the statements are compiled for.
+	 * @param maxSize The maximum number of idle statements kept.
+	 */
+	public StatementCache(SQLiteDatabase db, int maxSize) {
+		mDb = db;
+		mMaxSize = maxSize;
+		
+		mStatements = new LinkedHashMap<String, List<SQLiteStatement>>(16, 0.75f, true);
+		mSize = 0;
+		
+		mHits = 0;
+		mMisses = 0;
+	}
+	
+	/**
+	 * Get a statement for the given SQL, compiling it if no idle one is cached.
+	 * The statement must be given back with release().
+	 * @param sql The statement SQL.
+	 * @return The statement, with its bindings cleared.
+	 */
+	public SQLiteStatement acquire(String sql) {
+		synchronized (this) {
+			List<SQLiteStatement> idle = mStatements.get(sql);
+			if (idle != null) {
+				mHits++;
+				mSize--;
+				
+				SQLiteStatement statement = idle.remove(idle.size() - 1);
+				if (idle.isEmpty()) {
+					mStatements.remove(sql);
+				}
+				
+				statement.clearBindings();
+				
+				return statement;
+			}
+			
+			mMisses++;
+		}
+		
+		return mDb.compileStatement(sql);
+	}
+	
+	/**
+	 * Give back a statement obtained from acquire(). The least recently used statements
+	 * are closed when the cache is full.
+	 * @param sql The statement SQL.
+	 * @param statement The statement.
+	 */
+	public synchronized void release(String sql, SQLiteStatement statement) {
+		List<SQLiteStatement> idle = mStatements.get(sql);
+		if (idle == null) {
+			idle = new ArrayList<SQLiteStatement>(1);
+			mStatements.put(sql, idle);
+		}
+		
+		idle.add(statement);
+		mSize++;
+		
+		Iterator<List<SQLiteStatement>> iterator = mStatements.values().iterator();
+		while ((mSize > mMaxSize) &&
+				(iterator.hasNext())) {
+			List<SQLiteStatement> eldest = iterator.next();
+			
+			while ((mSize > mMaxSize) &&
+					(!eldest.isEmpty())) {
+				eldest.remove(0).close();
+				mSize--;
+			}
+			
+			if (eldest.isEmpty()) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Close all the idle statements, e.g. before a schema change.
+	 */
+	public synchronized void clear() {
+		for (List<SQLiteStatement> idle : mStatements.values()) {
+			for (SQLiteStatement statement : idle) {
+				statement.close();
+			}
+		}
+		
+		mStatements.clear();
+		mSize = 0;
+	}
+	
+	public synchronized long getHits() {
+		return mHits;
+	}
+	
+	public synchronized long getMisses() {
+		return mMisses;
+	}
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.providers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.tint.tasks.TaskExecutors;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Bookmarks thumbnails, stored as JPEG files in the application cache directory, keyed by bookmark id.
+ * The store has a total size budget: the least recently used thumbnails are deleted when it is exceeded.
+ * Thumbnails may also be deleted by the system when it needs storage, they are captured again on the next visit.
+ */
+public class ThumbnailStore {
+	
+	private static final String DIRECTORY = "thumbnails";
+	private static final String EXTENSION = ".jpg";
+	
+	private static final long MAX_BYTES = 8 * 1024 * 1024;
+	private static final int JPEG_QUALITY = 80;
+	
+	private static ThumbnailStore sInstance = null;
+	
+	private Context mContext;
+	private File mDirectory;
+	
+	/**
+	 * Stored thumbnails sizes, by bookmark id, from the least recently used.
+	 */
+	private Map<Long, Long> mFiles;
+	private long mSize;
+	
+	/**
+	 * Incremented on each change, so that displayed thumbnails can be refreshed.
+	 */
+	private volatile int mVersion;
+	
+	public static synchronized ThumbnailStore getInstance(Context context) {
+		if (sInstance == null) {
+			sInstance = new ThumbnailStore(context.getApplicationContext());
+		}
+		
+		return sInstance;
+	}
+	
+	private ThumbnailStore(Context context) {
+		mContext = context;
+		mDirectory = new File(context.getCacheDir(), DIRECTORY);
+		
+		mFiles = null;
+		mSize = 0;
+		
+		mVersion = 0;
+	}
+	
+	/**
+	 * Store the thumbnail of a bookmark, replacing the existing one. Does file I/O: do not call it from the UI thread.
+	 * @param id The bookmark id.
+	 * @param thumbnail The thumbnail.
+	 * @return True if the thumbnail has been stored.
+	 */
+	public boolean putThumbnail(long id, Bitmap thumbnail) {
+		if ((!mDirectory.isDirectory()) &&
+				(!mDirectory.mkdirs())) {
+			Log.w("ThumbnailStore", "Unable to create thumbnails directory.");
+			return false;
+		}
+		
+		synchronized (this) {
+			loadFiles();
+		}
+		
+		// Written to a temporary file first, so that a reader never sees a partial file.
+		File temporary = new File(mDirectory, id + EXTENSION + ".tmp");
+		
+		FileOutputStream os = null;
+		try {
+			os = new FileOutputStream(temporary);
+			thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, os);
+		} catch (IOException e) {
+			e.printStackTrace();
+			Log.w("ThumbnailStore", "Unable to write thumbnail: " + e.getMessage());
+			temporary.delete();
+			return false;
+		} finally {
+			if (os != null) {
+				try {
+					os.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		synchronized (this) {
+			File file = getFile(id);
+			if (!temporary.renameTo(file)) {
+				temporary.delete();
+				return false;
+			}
+			
+			Long previousSize = mFiles.remove(id);
+			if (previousSize != null) {
+				mSize -= previousSize;
+			}
+			
+			mFiles.put(id, file.length());
+			mSize += file.length();
+			
+			trimToBudget();
+			
+			mVersion++;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Read the thumbnail of a bookmark, subsampled to the closest size larger than the requested one.
+	 * Does file I/O: do not call it from the UI thread when possible.
+	 * @param id The bookmark id.
+	 * @param width The requested width, or 0 for the full size.
+	 * @param height The requested height, or 0 for the full size.
+	 * @return The thumbnail, or null if there is none.
+	 */
+	public Bitmap getThumbnail(long id, int width, int height) {
+		return getThumbnail(id, width, height, null);
+	}
+	
+	/**
+	 * Read the thumbnail of a bookmark, decoding it into the given bitmap when possible.
+	 * The returned bitmap is mutable, so that it can in turn be reused.
+	 * @param id The bookmark id.
+	 * @param width The requested width, or 0 for the full size.
+	 * @param height The requested height, or 0 for the full size.
+	 * @param reuse A mutable RGB_565 bitmap which is no longer displayed, or null. It is only used if
+	 * the decoded thumbnail has exactly its size, in which case it is returned.
+	 * @return The thumbnail, or null if there is none.
+	 */
+	public Bitmap getThumbnail(long id, int width, int height, Bitmap reuse) {
+		File file = getFile(id);
+		
+		synchronized (this) {
+			loadFiles();
+			
+			// Also moves the thumbnail to the most recently used end.
+			if (mFiles.get(id) == null) {
+				return null;
+			}
+		}
+		
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(file.getPath(), options);
+		
+		options.inJustDecodeBounds = false;
+		options.inPreferredConfig = Bitmap.Config.RGB_565;
+		options.inMutable = true;
+		options.inSampleSize = 1;
+		
+		if ((width > 0) &&
+				(height > 0)) {
+			while ((options.outWidth / (options.inSampleSize * 2) >= width) &&
+					(options.outHeight / (options.inSampleSize * 2) >= height)) {
+				options.inSampleSize *= 2;
+			}
+		}
+		
+		// Before KitKat, a bitmap can only be reused for an image of the same size, without subsampling.
+		if ((reuse != null) &&
+				(reuse.isMutable()) &&
+				(reuse.getConfig() == Bitmap.Config.RGB_565) &&
+				(options.inSampleSize == 1) &&
+				(reuse.getWidth() == options.outWidth) &&
+				(reuse.getHeight() == options.outHeight)) {
+			options.inBitmap = reuse;
+		}
+		
+		Bitmap result;
+		try {
+			result = BitmapFactory.decodeFile(file.getPath(), options);
+		} catch (IllegalArgumentException e) {
+			// The reused bitmap has been refused by the decoder.
+			options.inBitmap = null;
+			result = BitmapFactory.decodeFile(file.getPath(), options);
+		}
+		if (result == null) {
+			// Deleted by the system meanwhile.
+			removeThumbnail(id);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the date a thumbnail was stored, e.g. to decide if it should be captured again.
+	 * @param id The bookmark id.
+	 * @return The thumbnail date, or 0 if there is none.
+	 */
+	public synchronized long getThumbnailDate(long id) {
+		loadFiles();
+		return mFiles.containsKey(id) ? getFile(id).lastModified() : 0;
+	}
+	
+	public synchronized void removeThumbnail(long id) {
+		loadFiles();
+		
+		Long size = mFiles.remove(id);
+		if (size != null) {
+			mSize -= size;
+		}
+		
+		getFile(id).delete();
+		
+		mVersion++;
+	}
+	
+	/**
+	 * Delete a thumbnail on the writes lane, so that the UI thread does not wait for the file system.
+	 * @param id The bookmark id.
+	 */
+	public void removeThumbnailInBackground(final long id) {
+		TaskExecutors.WRITES.execute(new Runnable() {
+			@Override
+			public void run() {
+				removeThumbnail(id);
+			}
+		});
+	}
+	
+	/**
+	 * Delete all the thumbnails.
+	 */
+	public synchronized void clear() {
+		File[] files = mDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		
+		mFiles = new LinkedHashMap<Long, Long>(16, 0.75f, true);
+		mSize = 0;
+		
+		mVersion++;
+	}
+	
+	/**
+	 * @return The version of the stored thumbnails, which changes each time a thumbnail is stored or deleted.
+	 */
+	public int getVersion() {
+		return mVersion;
+	}
+	
+	/**
+	 * @return The total size of the stored thumbnails, in bytes.
+	 */
+	public synchronized long getSize() {
+		loadFiles();
+		return mSize;
+	}
+	
+	/**
+	 * Notify the observers of thumbnails changes, see BookmarksProvider.CHANGES_THUMBNAILS.
+	 */
+	public void notifyChange() {
+		mContext.getContentResolver().notifyChange(Uri.withAppendedPath(BookmarksProvider.CHANGES_URI, BookmarksProvider.CHANGES_THUMBNAILS), null);
+	}
+	
+	private File getFile(long id) {
+		return new File(mDirectory, id + EXTENSION);
+	}
+	
+	/**
+	 * Build the files index on first use. Access order is only tracked in memory: files are
+	 * indexed from the oldest stored, as their dates are their capture dates.
+	 */
+	private void loadFiles() {
+		if (mFiles != null) {
+			return;
+		}
+		
+		mFiles = new LinkedHashMap<Long, Long>(16, 0.75f, true);
+		mSize = 0;
+		
+		File[] files = mDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long lhsDate = lhs.lastModified();
+				long rhsDate = rhs.lastModified();
+				return lhsDate < rhsDate ? -1 : (lhsDate == rhsDate ? 0 : 1);
+			}
+		});
+		
+		for (File file : files) {
+			String name = file.getName();
+			
+			if (name.endsWith(EXTENSION)) {
+				try {
+					mFiles.put(Long.parseLong(name.substring(0, name.length() - EXTENSION.length())), file.length());
+					mSize += file.length();
+				} catch (NumberFormatException e) {
+					file.delete();
+				}
+			} else {
+				// Left over by an interrupted write.
+				file.delete();
+			}
+		}
+	}
+	
+	private void trimToBudget() {
+		Iterator<Map.Entry<Long, Long>> iterator = mFiles.entrySet().iterator();
+		while ((mSize > MAX_BYTES) &&
+				(iterator.hasNext())) {
+			Map.Entry<Long, Long> eldest = iterator.next();
+			
+			getFile(eldest.getKey()).delete();
+			mSize -= eldest.getValue();
+			iterator.remove();
+		}
+	}
+
+}
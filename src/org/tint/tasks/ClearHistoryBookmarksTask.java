@@ -0,0 +1,55 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.tasks;
+
+import org.tint.controllers.Controller;
+import org.tint.providers.BookmarksWrapper;
+import org.tint.providers.ThumbnailStore;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+public class ClearHistoryBookmarksTask extends AsyncTask<Void, Void, Void> {
+	
+	private Context mContext;
+	private boolean mClearHistory;
+	private boolean mClearBookmarks;
+	
+	public ClearHistoryBookmarksTask(Context context, boolean clearHistory, boolean clearBookmarks) {
+		mContext = context.getApplicationContext();
+		mClearHistory = clearHistory;
+		mClearBookmarks = clearBookmarks;
+	}
+	
+	@Override
+	protected Void doInBackground(Void... params) {
+		BookmarksWrapper.clearHistoryAndOrBookmarks(mContext.getContentResolver(), mClearHistory, mClearBookmarks);
+		
+		if (mClearBookmarks) {
+			ThumbnailStore.getInstance(mContext).clear();
+		}
+		
+		return null;
+	}
+	
+	@Override
+	protected void onPostExecute(Void result) {
+		if (Controller.getInstance().getHistoryWriteQueue() != null) {
+			Controller.getInstance().getHistoryWriteQueue().clearFaviconFingerprints();
+		}
+	}
+
+}
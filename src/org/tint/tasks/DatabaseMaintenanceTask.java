@@ -0,0 +1,102 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.tasks;
+
+import java.util.Date;
+
+import org.tint.providers.BookmarksProvider;
+import org.tint.providers.DatabaseMaintenance;
+import org.tint.providers.SslExceptionsProvider;
+import org.tint.utils.Constants;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Run the databases maintenance, at most every few days, when the browser goes to the background.
+ * The result of the last run on each database is recorded in the technical preferences.
+ * A database created without incremental vacuum is converted by the first run only, successful or not.
+ */
+public class DatabaseMaintenanceTask extends AsyncTask<Void, Void, Void> {
+	
+	private static final long MAINTENANCE_INTERVAL = 3 * 24 * 3600 * 1000;
+	
+	private static final String AUTO_VACUUM_CONVERSION_DONE = "autoVacuumConversionDone";
+	
+	private Context mContext;
+	
+	public DatabaseMaintenanceTask(Context context) {
+		mContext = context.getApplicationContext();
+	}
+	
+	/**
+	 * Start the task if the last maintenance is old enough.
+	 * @param context The current context.
+	 */
+	public static void startIfNeeded(Context context) {
+		long lastMaintenance = PreferenceManager.getDefaultSharedPreferences(context).getLong(Constants.TECHNICAL_PREFERENCE_LAST_DATABASE_MAINTENANCE, -1);
+		
+		if ((lastMaintenance < 0) ||
+				(new Date().getTime() - lastMaintenance > MAINTENANCE_INTERVAL)) {
+			new DatabaseMaintenanceTask(context).executeOnExecutor(TaskExecutors.BULK);
+		}
+	}
+	
+	@Override
+	protected Void doInBackground(Void... params) {
+		SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+		Editor editor = preferences.edit();
+		
+		runMaintenance(preferences, editor, BookmarksProvider.BOOKMARKS_URI, Constants.TECHNICAL_PREFERENCE_BOOKMARKS_DATABASE_STATS);
+		runMaintenance(preferences, editor, SslExceptionsProvider.SSL_EXCEPTIONS_URI, Constants.TECHNICAL_PREFERENCE_SSL_EXCEPTIONS_DATABASE_STATS);
+		
+		editor.putLong(Constants.TECHNICAL_PREFERENCE_LAST_DATABASE_MAINTENANCE, new Date().getTime());
+		editor.commit();
+		
+		return null;
+	}
+	
+	private void runMaintenance(SharedPreferences preferences, Editor editor, Uri uri, String statsPreference) {
+		ContentResolver contentResolver = mContext.getContentResolver();
+		
+		Bundle extras = new Bundle();
+		extras.putBoolean(DatabaseMaintenance.EXTRA_CONVERT_AUTO_VACUUM, !preferences.getBoolean(statsPreference + AUTO_VACUUM_CONVERSION_DONE, false));
+		
+		// Recorded before the run, so that it is not tried again if the process is killed meanwhile.
+		preferences.edit().putBoolean(statsPreference + AUTO_VACUUM_CONVERSION_DONE, true).commit();
+		
+		try {
+			Bundle result = contentResolver.call(uri, DatabaseMaintenance.METHOD_RUN_MAINTENANCE, null, extras);
+			if (result != null) {
+				editor.putBoolean(statsPreference + DatabaseMaintenance.RESULT_INTEGRITY_OK, result.getBoolean(DatabaseMaintenance.RESULT_INTEGRITY_OK));
+				editor.putLong(statsPreference + DatabaseMaintenance.RESULT_FILE_SIZE, result.getLong(DatabaseMaintenance.RESULT_FILE_SIZE));
+				editor.putLong(statsPreference + DatabaseMaintenance.RESULT_FREE_PAGES, result.getLong(DatabaseMaintenance.RESULT_FREE_PAGES));
+				editor.putLong(statsPreference + DatabaseMaintenance.RESULT_DURATION, result.getLong(DatabaseMaintenance.RESULT_DURATION));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w("DatabaseMaintenanceTask", "Unable to run maintenance on " + uri + ": " + e.getMessage());
+		}
+	}
+
+}
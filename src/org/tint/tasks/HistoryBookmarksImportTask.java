@@ -38,6 +38,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.tint.R;
 import org.tint.providers.BookmarksProvider;
+import org.tint.providers.BookmarksWrapper;
 import org.tint.ui.preferences.IHistoryBookmaksImportListener;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -45,9 +46,11 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Environment;
 
@@ -141,14 +144,21 @@ public class HistoryBookmarksImportTask extends AsyncTask<String, Integer, Strin
 				int progress = 0;
 				int total = foldersArray.length();
 				
+				ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+				
+				// For each folder, its id and its parent id in the export file. The insert operation of a folder has the same index.
+				long[] oldIds = new long[total];
+				long[] oldParentIds = new long[total];
+				Map<Long, Integer> insertIndexes = new HashMap<Long, Integer>();
+				
 				for (int i = 0; i < foldersArray.length(); i++) {
 					
 					publishProgress(3, progress, total);
 					
 					JSONObject folder = foldersArray.getJSONObject(i);
 					
-					long id = folder.getLong("id");
-					long parentId = folder.getLong("parentId");
+					oldIds[i] = folder.getLong("id");
+					oldParentIds[i] = folder.getLong("parentId");
 					String title = URLDecoder.decode(folder.getString("title"), "UTF-8");
 					
 					ContentValues values = new ContentValues();
@@ -157,44 +167,32 @@ public class HistoryBookmarksImportTask extends AsyncTask<String, Integer, Strin
 					values.put(BookmarksProvider.Columns.IS_FOLDER, 1);
 					values.put(BookmarksProvider.Columns.PARENT_FOLDER_ID, -1);
 					
-					Uri insertionUri = mContext.getContentResolver().insert(BookmarksProvider.BOOKMARKS_URI, values);
-					String insertionString = insertionUri.toString();
-					
-					// Get the new id for the current folder.
-					long insertionId = -1;
-					try {
-						 insertionId = Long.parseLong(insertionString.substring(insertionString.lastIndexOf('/') + 1));
-					} catch (NumberFormatException e) {
-						insertionId = -1;
-					}
-					
-					// Keep a relation between the id of the folder in the export file, its parent id (in the export file), and its new id.
-					folders.put(id, new Folder(insertionId, parentId));
+					operations.add(ContentProviderOperation.newInsert(BookmarksProvider.BOOKMARKS_URI).withValues(values).build());
+					insertIndexes.put(oldIds[i], i);
 					
 					progress++;
 				}
 				
 				publishProgress(4, 0, 0);
 				
-				// Correct folders parent ids.
-				if (!folders.isEmpty()) {
-					for (Folder folder : folders.values()) {
-						// For each folder previously inserted, check if it had a parent folder in the export file.
-						long oldParentId = folder.getOldParentId();
-						
-						if (oldParentId != -1) {
-							// Get the parent folder by its old Id, key of folders map.
-							Folder parentFolder = folders.get(oldParentId);
-							if (parentFolder != null) {
-								
-								ContentValues values = new ContentValues();
-								values.put(BookmarksProvider.Columns.PARENT_FOLDER_ID, parentFolder.getNewId());
-								
-								String whereClause = BookmarksProvider.Columns._ID + " = " + folder.getNewId();
-								
-								mContext.getContentResolver().update(BookmarksProvider.BOOKMARKS_URI, values, whereClause, null);
-							}
-						}
+				// Correct folders parent ids, using the new ids of the folders inserted in the same batch.
+				for (int i = 0; i < total; i++) {
+					Integer parentIndex = insertIndexes.get(oldParentIds[i]);
+					
+					if (parentIndex != null) {
+						operations.add(ContentProviderOperation.newUpdate(BookmarksProvider.BOOKMARKS_URI)
+								.withSelection(BookmarksProvider.Columns._ID + " = ?", new String[1])
+								.withSelectionBackReference(0, i)
+								.withValueBackReference(BookmarksProvider.Columns.PARENT_FOLDER_ID, parentIndex)
+								.build());
+					}
+				}
+				
+				ContentProviderResult[] results = BookmarksWrapper.applyBatch(mContext.getContentResolver(), operations);
+				if (results != null) {
+					for (int i = 0; i < total; i++) {
+						// Keep a relation between the id of the folder in the export file, its parent id (in the export file), and its new id.
+						folders.put(oldIds[i], new Folder(ContentUris.parseId(results[i].uri), oldParentIds[i]));
 					}
 				}
 			}
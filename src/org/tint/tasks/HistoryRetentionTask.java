@@ -0,0 +1,83 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.tasks;
+
+import java.util.Date;
+
+import org.tint.controllers.Controller;
+import org.tint.providers.BookmarksProvider;
+import org.tint.providers.BookmarksWrapper;
+import org.tint.utils.Constants;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+
+/**
+ * Apply the history retention limits and decay frecency, at most once a day.
+ * Runs on the thread pool, so that visits recorded meanwhile are not queued behind it.
+ */
+public class HistoryRetentionTask extends AsyncTask<Void, Void, Bundle> {
+	
+	private static final long DAY_IN_MILLISECONDS = 24 * 3600 * 1000;
+	
+	private Context mContext;
+	
+	public HistoryRetentionTask(Context context) {
+		mContext = context.getApplicationContext();
+	}
+	
+	/**
+	 * Start the task if the last retention is more than a day old.
+	 * @param context The current context.
+	 */
+	public static void startIfNeeded(Context context) {
+		long lastTruncation = PreferenceManager.getDefaultSharedPreferences(context).getLong(Constants.TECHNICAL_PREFERENCE_LAST_HISTORY_TRUNCATION, -1);
+		
+		if ((lastTruncation < 0) ||
+				(new Date().getTime() - lastTruncation > DAY_IN_MILLISECONDS)) {
+			new HistoryRetentionTask(context).executeOnExecutor(TaskExecutors.BULK);
+		}
+	}
+	
+	@Override
+	protected Bundle doInBackground(Void... params) {
+		SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+		
+		Bundle result = BookmarksWrapper.truncateHistory(mContext.getContentResolver(),
+				preferences.getString(Constants.PREFERENCE_HISTORY_SIZE, "30"),
+				preferences.getString(Constants.PREFERENCE_HISTORY_MAX_RECORDS, "0"),
+				preferences.getString(Constants.PREFERENCE_HISTORY_MAX_DATABASE_SIZE, "0"));
+		
+		BookmarksWrapper.decayFrecency(mContext.getContentResolver());
+		
+		preferences.edit().putLong(Constants.TECHNICAL_PREFERENCE_LAST_HISTORY_TRUNCATION, new Date().getTime()).commit();
+		
+		return result;
+	}
+	
+	@Override
+	protected void onPostExecute(Bundle result) {
+		if ((result != null) &&
+				(result.getInt(BookmarksProvider.RESULT_DELETED_RECORDS) > 0) &&
+				(Controller.getInstance().getHistoryWriteQueue() != null)) {
+			Controller.getInstance().getHistoryWriteQueue().clearFaviconFingerprints();
+		}
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.tasks;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Background executors, one lane per kind of work, so that a long job in one lane does not delay the others.
+ * AsyncTask.execute() runs every task of the application on a single serial executor: tasks should use
+ * executeOnExecutor() with one of these lanes instead.
+ */
+public class TaskExecutors {
+	
+	/**
+	 * Database reads the user is waiting for, e.g. history pages.
+	 */
+	public static final Lane USER_READS = new Lane("UserReads", 2, 32, Process.THREAD_PRIORITY_DEFAULT, false);
+	
+	/**
+	 * History writes: visits, favicons, user edits. A single thread keeps the writes in order.
+	 */
+	public static final Lane WRITES = new Lane("Writes", 1, 128, Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE, false);
+	
+	/**
+	 * Images encoding and decoding. When the lane is full, the oldest pending work is dropped.
+	 */
+	public static final Lane IMAGES = new Lane("Images", 1, 16, Process.THREAD_PRIORITY_BACKGROUND, true);
+	
+	/**
+	 * Long jobs: import, export, retention, maintenance.
+	 */
+	public static final Lane BULK = new Lane("Bulk", 1, 8, Process.THREAD_PRIORITY_LOWEST, false);
+	
+	/**
+	 * Idle lane threads stop after this delay.
+	 */
+	private static final long KEEP_ALIVE_SECONDS = 30;
+	
+	/**
+	 * A bounded executor, with queue depth and latency metrics.
+	 */
+	public static class Lane extends ThreadPoolExecutor {
+		
+		private String mName;
+		
+		private int mMaxQueueDepth = 0;
+		private long mTaskCount = 0;
+		private long mTotalWaitTime = 0;
+		private long mTotalRunTime = 0;
+		private long mRejectedCount = 0;
+		
+		private Lane(final String name, int threads, int capacity, final int priority, final boolean dropOldest) {
+			super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(capacity));
+			
+			mName = name;
+			allowCoreThreadTimeOut(true);
+			
+			setThreadFactory(new ThreadFactory() {
+				private final AtomicInteger mCount = new AtomicInteger(1);
+				
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					return new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(priority);
+							runnable.run();
+						}
+					}, "Tint" + name + " #" + mCount.getAndIncrement());
+				}
+			});
+			
+			setRejectedExecutionHandler(new RejectedExecutionHandler() {
+				@Override
+				public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+					onRejected();
+					
+					if (dropOldest &&
+							(!executor.isShutdown())) {
+						cancelDropped(executor.getQueue().poll());
+						
+						// The runnable is already timed: queue it as is, instead of wrapping it again through execute().
+						if (!executor.getQueue().offer(runnable)) {
+							cancelDropped(runnable);
+						}
+					} else {
+						Log.w("TaskExecutors", "Lane " + name + " is full, task dropped.");
+					}
+				}
+			});
+		}
+		
+		@Override
+		public void execute(Runnable command) {
+			super.execute(new TimedRunnable(command));
+			
+			synchronized (this) {
+				mMaxQueueDepth = Math.max(mMaxQueueDepth, getQueue().size());
+			}
+		}
+		
+		public String getName() {
+			return mName;
+		}
+		
+		/**
+		 * @return The number of tasks waiting in the lane.
+		 */
+		public int getQueueDepth() {
+			return getQueue().size();
+		}
+		
+		public synchronized int getMaxQueueDepth() {
+			return mMaxQueueDepth;
+		}
+		
+		/**
+		 * @return The average time spent by tasks in the queue, in milliseconds.
+		 */
+		public synchronized long getAverageWaitTime() {
+			return mTaskCount > 0 ? mTotalWaitTime / mTaskCount : 0;
+		}
+		
+		/**
+		 * @return The average run time of tasks, in milliseconds.
+		 */
+		public synchronized long getAverageRunTime() {
+			return mTaskCount > 0 ? mTotalRunTime / mTaskCount : 0;
+		}
+		
+		/**
+		 * @return The number of tasks dropped because the lane was full.
+		 */
+		public synchronized long getRejectedCount() {
+			return mRejectedCount;
+		}
+		
+		private synchronized void onRejected() {
+			mRejectedCount++;
+		}
+		
+		/**
+		 * Cancel a task dropped from the queue, so that e.g. an AsyncTask gets its onCancelled() call.
+		 * @param runnable The dropped task.
+		 */
+		private void cancelDropped(Runnable runnable) {
+			if (runnable instanceof TimedRunnable) {
+				runnable = ((TimedRunnable) runnable).getRunnable();
+			}
+			
+			if (runnable instanceof Future<?>) {
+				((Future<?>) runnable).cancel(false);
+			}
+		}
+		
+		private synchronized void onTaskDone(long waitTime, long runTime) {
+			mTaskCount++;
+			mTotalWaitTime += waitTime;
+			mTotalRunTime += runTime;
+		}
+		
+		/**
+		 * Record the time spent by a task in the queue and running.
+		 */
+		private class TimedRunnable implements Runnable {
+			
+			private Runnable mRunnable;
+			private long mQueuedTime;
+			
+			public TimedRunnable(Runnable runnable) {
+				mRunnable = runnable;
+				mQueuedTime = SystemClock.elapsedRealtime();
+			}
+			
+			public Runnable getRunnable() {
+				return mRunnable;
+			}
+			
+			@Override
+			public void run() {
+				long startTime = SystemClock.elapsedRealtime();
+				try {
+					mRunnable.run();
+				} finally {
+					onTaskDone(startTime - mQueuedTime, SystemClock.elapsedRealtime() - startTime);
+				}
+			}
+		}
+	}
+	
+	private TaskExecutors() { }
+
+}
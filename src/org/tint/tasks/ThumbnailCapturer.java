@@ -0,0 +1,175 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.tasks;
+
+import java.lang.ref.WeakReference;
+
+import org.tint.providers.BookmarksWrapper;
+import org.tint.providers.ThumbnailStore;
+import org.tint.utils.ApplicationUtils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.util.LruCache;
+import android.webkit.WebView;
+
+/**
+ * Capture of bookmarks thumbnails, when a bookmarked page has been loaded.
+ * Bookmarks lookup and thumbnails storage are done on the images lane. Only the drawing of the
+ * visible part of the page, directly at the thumbnail size, is done on the UI thread.
+ * Methods must be called from the UI thread.
+ */
+public class ThumbnailCapturer {
+	
+	/**
+	 * A stored thumbnail more recent than this is not captured again.
+	 */
+	private static final long MAX_THUMBNAIL_AGE = 24 * 60 * 60 * 1000;
+	
+	/**
+	 * Minimum delay between two captures requests of the same url.
+	 */
+	private static final long MIN_REQUEST_INTERVAL = 60 * 1000;
+	
+	private Context mContext;
+	private int mWidth;
+	private int mHeight;
+	
+	private LruCache<String, Long> mRequestDates;
+	
+	private int mCapturedCount;
+	private int mSkippedCount;
+	
+	public ThumbnailCapturer(Context context) {
+		mContext = context.getApplicationContext();
+		
+		int[] dimensions = ApplicationUtils.getBookmarksThumbnailsDimensions(context);
+		mWidth = dimensions[0];
+		mHeight = dimensions[1];
+		
+		mRequestDates = new LruCache<String, Long>(32);
+		
+		mCapturedCount = 0;
+		mSkippedCount = 0;
+	}
+	
+	/**
+	 * Capture the thumbnail of a page if it is bookmarked, and if its stored thumbnail is outdated.
+	 * @param view The view displaying the page.
+	 * @param url The page url.
+	 */
+	public void capture(WebView view, String url) {
+		if (url == null) {
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		
+		Long lastRequest = mRequestDates.get(url);
+		if ((lastRequest != null) &&
+				(now - lastRequest < MIN_REQUEST_INTERVAL)) {
+			mSkippedCount++;
+			return;
+		}
+		
+		mRequestDates.put(url, now);
+		
+		new BookmarksLookupTask(view, url).executeOnExecutor(TaskExecutors.IMAGES);
+	}
+	
+	public int getCapturedCount() {
+		return mCapturedCount;
+	}
+	
+	public int getSkippedCount() {
+		return mSkippedCount;
+	}
+	
+	/**
+	 * Draw the visible part of a page at the thumbnail size.
+	 * @param view The view displaying the page.
+	 * @return The thumbnail, or null if the view is not laid out.
+	 */
+	private Bitmap draw(WebView view) {
+		if (view.getWidth() <= 0) {
+			return null;
+		}
+		
+		Bitmap thumbnail = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.RGB_565);
+		ApplicationUtils.drawWebViewThumbnail(view, thumbnail);
+		
+		return thumbnail;
+	}
+	
+	/**
+	 * Find the bookmarks of a page which need a new thumbnail, and capture it if any.
+	 */
+	private class BookmarksLookupTask extends AsyncTask<Void, Void, long[]> {
+		
+		private WeakReference<WebView> mView;
+		private String mUrl;
+		private String mOriginalUrl;
+		
+		public BookmarksLookupTask(WebView view, String url) {
+			mView = new WeakReference<WebView>(view);
+			mUrl = url;
+			mOriginalUrl = view.getOriginalUrl();
+		}
+		
+		@Override
+		protected long[] doInBackground(Void... params) {
+			long[] ids = BookmarksWrapper.getBookmarkIds(mContext.getContentResolver(), mUrl, mOriginalUrl);
+			
+			ThumbnailStore store = ThumbnailStore.getInstance(mContext);
+			long now = System.currentTimeMillis();
+			
+			int count = 0;
+			for (long id : ids) {
+				if (now - store.getThumbnailDate(id) > MAX_THUMBNAIL_AGE) {
+					ids[count++] = id;
+				}
+			}
+			
+			long[] result = new long[count];
+			System.arraycopy(ids, 0, result, 0, count);
+			
+			return result;
+		}
+		
+		@Override
+		protected void onPostExecute(long[] result) {
+			WebView view = mView.get();
+			
+			// The view may have been closed, or navigated away meanwhile.
+			Bitmap thumbnail = null;
+			if ((result.length > 0) &&
+					(view != null) &&
+					(mUrl.equals(view.getUrl()))) {
+				thumbnail = draw(view);
+			}
+			
+			if (thumbnail != null) {
+				mCapturedCount++;
+				new ThumbnailSaver(mContext, result, thumbnail).executeOnExecutor(TaskExecutors.IMAGES);
+			} else {
+				mSkippedCount++;
+			}
+		}
+		
+	}
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.tasks;
+
+import org.tint.providers.BookmarksWrapper;
+import org.tint.utils.Constants;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+
+/**
+ * Move the thumbnails left in the database by its upgrade to the thumbnails store.
+ * Runs once after the upgrade, and again on the next start if it failed.
+ */
+public class ThumbnailMigrationTask extends AsyncTask<Void, Void, Void> {
+	
+	private Context mContext;
+	
+	public ThumbnailMigrationTask(Context context) {
+		mContext = context.getApplicationContext();
+	}
+	
+	/**
+	 * Start the task if the database upgrade left thumbnails to move.
+	 * @param context The current context.
+	 */
+	public static void startIfNeeded(Context context) {
+		if (PreferenceManager.getDefaultSharedPreferences(context).getBoolean(Constants.TECHNICAL_PREFERENCE_THUMBNAILS_MIGRATION_NEEDED, false)) {
+			new ThumbnailMigrationTask(context).executeOnExecutor(TaskExecutors.BULK);
+		}
+	}
+	
+	@Override
+	protected Void doInBackground(Void... params) {
+		if (BookmarksWrapper.migrateThumbnails(mContext.getContentResolver())) {
+			PreferenceManager.getDefaultSharedPreferences(mContext).edit().putBoolean(Constants.TECHNICAL_PREFERENCE_THUMBNAILS_MIGRATION_NEEDED, false).commit();
+		}
+		
+		return null;
+	}
+
+}
@@ -15,54 +15,42 @@
 
 package org.tint.tasks;
 
-import org.tint.providers.BookmarksWrapper;
+import org.tint.providers.ThumbnailStore;
 
-import android.content.ContentResolver;
+import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Picture;
 import android.os.AsyncTask;
 
+/**
+ * Store a captured thumbnail for some bookmarks. The thumbnail is recycled once stored.
+ */
 public class ThumbnailSaver extends AsyncTask<Void, Void, Void> {
 
-	private ContentResolver mContentResolver;
-	private String mUrl;
-	private String mOriginalUrl;
-	
-	private Picture mPicture;
+	private Context mContext;
+	private long[] mIds;
 	
-	private int mCaptureWidth;
-	private int mCaptureHeight;
+	private Bitmap mThumbnail;
 	
-	public ThumbnailSaver(ContentResolver contentResolver, String url, String originalUrl, Picture picture, int[] dimensions) {
-		mContentResolver = contentResolver;
-		mUrl = url;
-		mOriginalUrl = originalUrl;
-		
-		mPicture = picture;
+	public ThumbnailSaver(Context context, long[] ids, Bitmap thumbnail) {
+		mContext = context.getApplicationContext();
+		mIds = ids;
 		
-		mCaptureWidth = dimensions[0];
-		mCaptureHeight = dimensions[1];
+		mThumbnail = thumbnail;
 	}
 	
 	@Override
 	protected Void doInBackground(Void... params) {
-		if (mPicture != null) {
-			Bitmap bm = Bitmap.createBitmap(mCaptureWidth, mCaptureHeight, Bitmap.Config.ARGB_8888);
-
-			Canvas canvas = new Canvas(bm);
-
-			Paint p = new Paint(Paint.ANTI_ALIAS_FLAG);
-			p.setColor(0xFFFFFFFF);
-			canvas.drawRect(0, 0, mCaptureWidth, mCaptureHeight, p);
-
-			float scale = mCaptureWidth / (float) mPicture.getWidth();
-			canvas.scale(scale, scale);
-
-			mPicture.draw(canvas);
-
-			BookmarksWrapper.updateThumbnail(mContentResolver, mUrl, mOriginalUrl, bm);
+		ThumbnailStore store = ThumbnailStore.getInstance(mContext);
+		
+		boolean changed = false;
+		for (long id : mIds) {
+			changed |= store.putThumbnail(id, mThumbnail);
+		}
+		
+		mThumbnail.recycle();
+		
+		if (changed) {
+			store.notifyChange();
 		}
 		
 		return null;
@@ -22,8 +22,10 @@ import org.tint.R;
 import org.tint.addons.AddonMenuItem;
 import org.tint.controllers.Controller;
 import org.tint.providers.BookmarksWrapper;
+import org.tint.tasks.ClearHistoryBookmarksTask;
 import org.tint.tasks.HistoryBookmarksExportTask;
 import org.tint.tasks.HistoryBookmarksImportTask;
+import org.tint.tasks.TaskExecutors;
 import org.tint.ui.fragments.BookmarksFragment;
 import org.tint.ui.fragments.HistoryFragment;
 import org.tint.ui.managers.UIManager;
@@ -270,7 +272,7 @@ public class BookmarksActivity extends Activity implements IHistoryBookmaksExpor
 				
 				boolean retVal = mImportSyncThread.compareAndSet(null, mImportTask);
 				if (retVal) {
-					mImportTask.execute(choices[which]);
+					mImportTask.executeOnExecutor(TaskExecutors.BULK, choices[which]);
 				}						
 				
 			}    		
@@ -296,7 +298,7 @@ public class BookmarksActivity extends Activity implements IHistoryBookmaksExpor
 		
 		boolean retVal = mExportSyncThread.compareAndSet(null, mExportTask);
 		if (retVal) {
-			mExportTask.execute(BookmarksWrapper.getAllHistoryBookmarks(getContentResolver()));
+			mExportTask.executeOnExecutor(TaskExecutors.BULK, BookmarksWrapper.getAllHistoryBookmarks(getContentResolver()));
 		}
 	}
 	
@@ -312,15 +314,15 @@ public class BookmarksActivity extends Activity implements IHistoryBookmaksExpor
 				
 				switch (which) {
 				case 0:
-					BookmarksWrapper.clearHistoryAndOrBookmarks(getContentResolver(), true, false);
+					new ClearHistoryBookmarksTask(BookmarksActivity.this, true, false).executeOnExecutor(TaskExecutors.BULK);
 					break;
 				
 				case 1:
-					BookmarksWrapper.clearHistoryAndOrBookmarks(getContentResolver(), false, true);
+					new ClearHistoryBookmarksTask(BookmarksActivity.this, false, true).executeOnExecutor(TaskExecutors.BULK);
 					break;
 					
 				case 2:
-					BookmarksWrapper.clearHistoryAndOrBookmarks(getContentResolver(), true, true);
+					new ClearHistoryBookmarksTask(BookmarksActivity.this, true, true).executeOnExecutor(TaskExecutors.BULK);
 					break;
 
 				default:
@@ -24,6 +24,8 @@ import org.tint.addons.AddonMenuItem;
 import org.tint.controllers.Controller;
 import org.tint.model.DownloadItem;
 import org.tint.providers.BookmarksWrapper;
+import org.tint.tasks.DatabaseMaintenanceTask;
+import org.tint.tasks.ThumbnailMigrationTask;
 import org.tint.ui.components.CustomWebView;
 import org.tint.ui.dialogs.YesNoRememberDialog;
 import org.tint.ui.fragments.BaseWebViewFragment;
@@ -121,8 +123,10 @@ public class TintBrowserActivity extends Activity {
 			public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
 				mUIManager.onSharedPreferenceChanged(sharedPreferences, key);
 				
-				// If the user changed the history size, reset the last history truncation date.
-				if (Constants.PREFERENCE_HISTORY_SIZE.equals(key)) {
+				// If the user changed the history limits, reset the last history truncation date.
+				if ((Constants.PREFERENCE_HISTORY_SIZE.equals(key)) ||
+						(Constants.PREFERENCE_HISTORY_MAX_RECORDS.equals(key)) ||
+						(Constants.PREFERENCE_HISTORY_MAX_DATABASE_SIZE.equals(key))) {
 					Editor prefEditor = sharedPreferences.edit();
 					prefEditor.putLong(Constants.TECHNICAL_PREFERENCE_LAST_HISTORY_TRUNCATION, -1);
 					prefEditor.commit();
@@ -183,6 +187,8 @@ public class TintBrowserActivity extends Activity {
 			}
 		}
 		
+		ThumbnailMigrationTask.startIfNeeded(this);
+		
 		mUIManager.onNewIntent(startIntent);
 		
 		if (prefs.contains(Constants.TECHNICAL_PREFERENCE_SAVED_TABS)) {
@@ -414,6 +420,8 @@ public class TintBrowserActivity extends Activity {
 		
 		mUIManager.onMainActivityPause();
 		unregisterReceiver(mDownloadsReceiver);
+		
+		Controller.getInstance().getHistoryWriteQueue().flush();
 	}
 
 	@Override
@@ -437,6 +445,7 @@ public class TintBrowserActivity extends Activity {
 	@Override
 	protected void onStop() {
 		mUIManager.saveTabs();
+		DatabaseMaintenanceTask.startIfNeeded(this);
 		super.onStop();
 	}
 
@@ -16,8 +16,8 @@
 package org.tint.ui.components;
 
 import org.tint.R;
-import org.tint.tasks.UpdateFaviconTask;
-import org.tint.tasks.UpdateHistoryTask;
+import org.tint.controllers.Controller;
+import org.tint.providers.BookmarksProvider;
 import org.tint.ui.activities.TintBrowserActivity;
 import org.tint.ui.managers.UIManager;
 import org.tint.utils.Constants;
@@ -68,8 +68,13 @@ public class CustomWebChromeClient extends WebChromeClient {
 		mUIManager.onReceivedTitle(view, title);
 
 		if (!view.isPrivateBrowsingEnabled()) {
-			UpdateHistoryTask task = new UpdateHistoryTask(mUIManager.getMainActivity());
-			task.execute(view.getTitle(), view.getUrl(), view.getOriginalUrl());
+			int transition = BookmarksProvider.TRANSITION_LINK;
+			if ((view instanceof CustomWebView) &&
+					(((CustomWebView) view).consumeTypedUrlLoad())) {
+				transition = BookmarksProvider.TRANSITION_TYPED;
+			}
+			
+			Controller.getInstance().getHistoryWriteQueue().enqueueVisit(view.getTitle(), view.getUrl(), view.getOriginalUrl(), transition);
 		}
 	}
 	
@@ -77,8 +82,7 @@ public class CustomWebChromeClient extends WebChromeClient {
 	public void onReceivedIcon(WebView view, Bitmap icon) {
 		mUIManager.onReceivedIcon(view, icon);
 
-		UpdateFaviconTask task = new UpdateFaviconTask(mUIManager.getMainActivity().getContentResolver(), view.getUrl(), view.getOriginalUrl(), icon);
-		task.execute();
+		Controller.getInstance().getHistoryWriteQueue().enqueueFavicon(view.getUrl(), view.getOriginalUrl(), icon);
 	}
 	
 	@Override
@@ -63,6 +63,7 @@ public class CustomWebView extends WebView implements DownloadListener, Download
 
 	private boolean mIsLoading = false;
 	private boolean mPrivateBrowsing = false;	
+	private boolean mTypedUrlLoad = false;
 	
 	private static boolean sMethodsLoaded = false;
 	private static Method sWebSettingsSetProperty = null;
@@ -142,6 +143,24 @@ public class CustomWebView extends WebView implements DownloadListener, Download
 	public void loadRawUrl(String url) {
 		super.loadUrl(url);
 	}
+	
+	/**
+	 * Mark the next loaded page as typed by the user, for its history visit.
+	 */
+	public void setTypedUrlLoad() {
+		mTypedUrlLoad = true;
+	}
+	
+	/**
+	 * Check if the current page has been typed by the user. The mark is cleared,
+	 * so that only the first visit of the page is recorded as typed.
+	 * @return True if the current page has been typed by the user.
+	 */
+	public boolean consumeTypedUrlLoad() {
+		boolean typed = mTypedUrlLoad;
+		mTypedUrlLoad = false;
+		return typed;
+	}
 
 	public void onClientPageStarted(String url) {
 		mIsLoading = true;
@@ -153,6 +172,7 @@ public class CustomWebView extends WebView implements DownloadListener, Download
 	
 	public void onClientPageFinished(String url) {
 		mIsLoading = false;
+		mTypedUrlLoad = false;
 		
 		if (!isPrivateBrowsingEnabled()) {
 			Controller.getInstance().getAddonManager().onPageFinished(mContext, this, url);
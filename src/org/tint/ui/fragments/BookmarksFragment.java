@@ -25,11 +25,14 @@ import org.tint.model.BookmarkHistoryItem;
 import org.tint.model.BookmarksAdapter;
 import org.tint.providers.BookmarksProvider;
 import org.tint.providers.BookmarksWrapper;
+import org.tint.providers.ThumbnailStore;
+import org.tint.tasks.TaskExecutors;
 import org.tint.ui.activities.EditBookmarkActivity;
 import org.tint.ui.managers.UIFactory;
 import org.tint.ui.managers.UIManager;
 import org.tint.utils.ApplicationUtils;
 import org.tint.utils.Constants;
+import org.tint.utils.FaviconCache;
 
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
@@ -250,7 +253,8 @@ public class BookmarksFragment extends Fragment implements LoaderManager.LoaderC
 				menu.setHeaderTitle(selectedItem.getTitle());
 
 				if (!selectedItem.isFolder()) {
-					BitmapDrawable icon = ApplicationUtils.getApplicationButtonImage(getActivity(), selectedItem.getFavicon());
+					BitmapDrawable icon = ApplicationUtils.getApplicationButtonImage(getActivity(), selectedItem.getUrl(),
+							FaviconCache.getInstance(getActivity()).getFavicon(selectedItem.getUrl(), selectedItem.getFaviconData(), 0));
 					if (icon != null) {
 						menu.setHeaderIcon(icon);
 					}					
@@ -324,9 +328,16 @@ public class BookmarksFragment extends Fragment implements LoaderManager.LoaderC
 
 		case CONTEXT_MENU_DELETE_BOOKMARK:
 			BookmarksWrapper.deleteBookmark(getActivity().getContentResolver(), info.id);
+			ThumbnailStore.getInstance(getActivity()).removeThumbnailInBackground(info.id);
 			return true;
 
 		case CONTEXT_MENU_DELETE_FOLDER:
+			// An empty folder is deleted without confirmation.
+			if (BookmarksWrapper.getFolderContentCount(getActivity().getContentResolver(), info.id) == 0) {
+				doDeleteFolder(info.id);
+				return true;
+			}
+
 			AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
 			builder.setCancelable(true);
 			builder.setIcon(android.R.drawable.ic_dialog_info);
@@ -488,7 +499,7 @@ public class BookmarksFragment extends Fragment implements LoaderManager.LoaderC
 				getString(R.string.DeleteFolderTitle),
 				getString(R.string.DeleteFolderMessage));
 
-		new Thread(new DeleteFolderRunnable(folderId)).start();
+		TaskExecutors.WRITES.execute(new DeleteFolderRunnable(folderId));
 	}
 
 	@SuppressLint("HandlerLeak")
@@ -502,7 +513,15 @@ public class BookmarksFragment extends Fragment implements LoaderManager.LoaderC
 
 		@Override
 		public void run() {			
+			long[] bookmarkIds = BookmarksWrapper.getFolderBookmarkIds(getActivity().getContentResolver(), mFolderId);
+			
 			BookmarksWrapper.deleteFolder(getActivity().getContentResolver(), mFolderId);
+			
+			ThumbnailStore thumbnailStore = ThumbnailStore.getInstance(getActivity());
+			for (long id : bookmarkIds) {
+				thumbnailStore.removeThumbnail(id);
+			}
+			
 			mHandler.sendEmptyMessage(0);
 		}
 
@@ -23,9 +23,11 @@ import org.tint.controllers.Controller;
 import org.tint.model.HistoryAdapter;
 import org.tint.model.BookmarkHistoryItem;
 import org.tint.providers.BookmarksWrapper;
+import org.tint.providers.ThumbnailStore;
 import org.tint.ui.managers.UIManager;
 import org.tint.utils.ApplicationUtils;
 import org.tint.utils.Constants;
+import org.tint.utils.FaviconCache;
 
 import android.app.Activity;
 import android.app.Fragment;
@@ -131,9 +133,13 @@ public class HistoryFragment extends Fragment implements LoaderManager.LoaderCal
 			mBookmarkStarChangeListener = new OnCheckedChangeListener() {
 				@Override
 				public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-					long id = (Long) buttonView.getTag();
+					long id = ((BookmarkHistoryItem) buttonView.getTag()).getId();
 					BookmarksWrapper.toggleBookmark(getActivity().getContentResolver(), id, isChecked);
 					
+					if (!isChecked) {
+						ThumbnailStore.getInstance(getActivity()).removeThumbnailInBackground(id);
+					}
+					
 					if (isChecked) {
 						Toast.makeText(getActivity(), R.string.BookmarkAdded, Toast.LENGTH_SHORT).show();
 					} else {
@@ -196,7 +202,8 @@ public class HistoryFragment extends Fragment implements LoaderManager.LoaderCal
 		}
 		
 		if (selectedItem != null) {
-			BitmapDrawable icon = ApplicationUtils.getApplicationButtonImage(getActivity(), selectedItem.getFavicon());
+			BitmapDrawable icon = ApplicationUtils.getApplicationButtonImage(getActivity(), selectedItem.getUrl(),
+					FaviconCache.getInstance(getActivity()).getFavicon(selectedItem.getUrl(), selectedItem.getFaviconData(), 0));
 			if (icon != null) {
 				menu.setHeaderIcon(icon);
 			}
@@ -294,22 +301,22 @@ public class HistoryFragment extends Fragment implements LoaderManager.LoaderCal
 		mSelectedGroup = 0;
 		setListShown(false);
 		
-		return BookmarksWrapper.getCursorLoaderForHistory(getActivity());
+		return BookmarksWrapper.getCursorLoaderForHistoryBins(getActivity(), mAdapter.getDateSorter());
 	}
 
 	@Override
 	public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-		mAdapter.changeCursor(data);
+		mAdapter.changeBins(data);
 		
 		if (data != null) {
 			
 			if (!mTwoPaneMode) {
 				if (!mAfterDelete) {
-					if (mAdapter.getGroupCount() > 0) {
-						for (int i = 0; i < mExpandedGroups.length; i++) {
-							if (mExpandedGroups[i]) {
-								mListView.expandGroup(i, true);
-							}
+					int groupCount = mAdapter.getGroupCount();
+					for (int i = 0; i < groupCount; i++) {
+						if (mExpandedGroups[i]) {
+							mAdapter.loadGroup(i);
+							mListView.expandGroup(i, true);
 						}
 					}
 				}
@@ -326,7 +333,7 @@ public class HistoryFragment extends Fragment implements LoaderManager.LoaderCal
 
 	@Override
 	public void onLoaderReset(Loader<Cursor> loader) {
-		mAdapter.changeCursor(null);
+		mAdapter.changeBins(null);
 	}
 	
 	private void setListShown(boolean shown) {
@@ -364,6 +371,7 @@ public class HistoryFragment extends Fragment implements LoaderManager.LoaderCal
 			@Override
 			public void onGroupExpand(int groupPosition) {
 				mExpandedGroups[groupPosition] = true;
+				mAdapter.loadGroup(groupPosition);
 			}
 		});
 		
@@ -430,6 +438,7 @@ public class HistoryFragment extends Fragment implements LoaderManager.LoaderCal
 		CharSequence title = ((TextView) view).getText();
 		mChildHeader.setTitle(title, title);
 		
+		mAdapter.loadGroup(position);
 		mChildAdapter.setSelectedGroup(position);
 		mGroupList.setItemChecked(position, true);
 		
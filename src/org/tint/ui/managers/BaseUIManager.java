@@ -24,8 +24,7 @@ import java.util.UUID;
 import org.tint.R;
 import org.tint.controllers.Controller;
 import org.tint.model.DownloadItem;
-import org.tint.providers.BookmarksWrapper;
-import org.tint.tasks.ThumbnailSaver;
+import org.tint.tasks.ThumbnailCapturer;
 import org.tint.ui.activities.BookmarksActivity;
 import org.tint.ui.activities.EditBookmarkActivity;
 import org.tint.ui.activities.TintBrowserActivity;
@@ -43,7 +42,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences.Editor;
 import android.graphics.Bitmap;
-import android.graphics.Picture;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Handler;
@@ -94,9 +92,13 @@ public abstract class BaseUIManager implements UIManager {//, WebViewFragmentLis
 	
 	private Handler mHandler;
 	
+	private ThumbnailCapturer mThumbnailCapturer;
+	
 	public BaseUIManager(TintBrowserActivity activity) {
 		mActivity = activity;
 		
+		mThumbnailCapturer = new ThumbnailCapturer(activity);
+		
 		mActionBar = mActivity.getActionBar();
 		mFragmentManager = mActivity.getFragmentManager();
 		
@@ -120,7 +122,8 @@ public abstract class BaseUIManager implements UIManager {//, WebViewFragmentLis
 	protected abstract void resetUI();
 	
 	protected void setApplicationButtonImage(Bitmap icon) {
-		BitmapDrawable image = ApplicationUtils.getApplicationButtonImage(mActivity, icon);
+		CustomWebView currentWebView = getCurrentWebView();
+		BitmapDrawable image = ApplicationUtils.getApplicationButtonImage(mActivity, currentWebView != null ? currentWebView.getUrl() : null, icon);
 		
 		if (image != null) {			
 			mActionBar.setIcon(image);
@@ -211,6 +214,11 @@ public abstract class BaseUIManager implements UIManager {//, WebViewFragmentLis
 
 	@Override
 	public void loadCurrentUrl() {
+		CustomWebView webView = getCurrentWebView();
+		if (webView != null) {
+			webView.setTypedUrlLoad();
+		}
+		
 		loadUrl(getCurrentUrl());
 	}
 	
@@ -420,15 +428,7 @@ public abstract class BaseUIManager implements UIManager {//, WebViewFragmentLis
 			
 			@Override
 			public void run() {
-				if (BookmarksWrapper.urlHasBookmark(mActivity.getContentResolver(), url, view.getOriginalUrl())) {
-					Picture p = view.capturePicture();
-					
-					new ThumbnailSaver(mActivity.getContentResolver(),
-							url,
-							view.getOriginalUrl(),
-							p,
-							ApplicationUtils.getBookmarksThumbnailsDimensions(mActivity)).execute();
-				}				
+				mThumbnailCapturer.capture(view, url);
 			}
 		}, 2000);
 	}
@@ -534,7 +534,8 @@ public class LegacyPhoneUIManager extends BasePhoneUIManager {
 	
 	@Override
 	protected void setApplicationButtonImage(Bitmap icon) {
-		BitmapDrawable image = ApplicationUtils.getApplicationButtonImage(mActivity, icon);
+		CustomWebView currentWebView = getCurrentWebView();
+		BitmapDrawable image = ApplicationUtils.getApplicationButtonImage(mActivity, currentWebView != null ? currentWebView.getUrl() : null, icon);
 		
 		if (image != null) {			
 			mFaviconView.setImageDrawable(image);
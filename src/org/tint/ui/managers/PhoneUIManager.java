@@ -15,6 +15,12 @@
 
 package org.tint.ui.managers;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
 import org.tint.R;
 import org.tint.ui.activities.TintBrowserActivity;
 import org.tint.ui.components.BadgedImageView;
@@ -29,6 +35,7 @@ import org.tint.ui.views.PhoneUrlBar;
 import org.tint.ui.views.PhoneUrlBar.OnPhoneUrlBarEventListener;
 import org.tint.ui.views.TabView;
 import org.tint.ui.views.TabsScroller.OnRemoveListener;
+import org.tint.utils.ApplicationUtils;
 import org.tint.utils.Constants;
 
 import android.app.Activity;
@@ -36,8 +43,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Picture;
 import android.preference.PreferenceManager;
-import android.util.SparseArray;
 import android.view.ActionMode;
 import android.view.MotionEvent;
 import android.view.View;
@@ -64,6 +73,14 @@ public class PhoneUIManager extends BasePhoneUIManager {
 	
 	private TabAdapter mAdapter;
 	
+	/**
+	 * Tabs thumbnails, by tab UUID. They are only drawn when a tab has finished loading or is hidden,
+	 * not each time the tabs panel is built.
+	 */
+	private Map<UUID, Bitmap> mTabThumbnails;
+	private int mTabThumbnailWidth;
+	private int mTabThumbnailHeight;
+	
 	private SharedPreferences mPreferences;
 
 	static {
@@ -75,6 +92,12 @@ public class PhoneUIManager extends BasePhoneUIManager {
 		
 		mPreferences = PreferenceManager.getDefaultSharedPreferences(activity);
 		
+		float density = activity.getResources().getDisplayMetrics().density;
+		
+		mTabThumbnails = new HashMap<UUID, Bitmap>();
+		mTabThumbnailWidth = (int) (200 * density);
+		mTabThumbnailHeight = (int) (120 * density);
+		
 		mAdapter = new TabAdapter();
         mPanel.getTabsScroller().setAdapter(mAdapter);
 	}
@@ -89,6 +112,12 @@ public class PhoneUIManager extends BasePhoneUIManager {
 			
 			@Override
 			public void onPanelShown() {
+				// The current tab is hidden by the panel.
+				if ((mCurrentTabIndex >= 0) &&
+						(mCurrentTabIndex < mFragmentsList.size())) {
+					updateTabThumbnail(mFragmentsList.get(mCurrentTabIndex));
+				}
+				
 				mPanel.getTabsScroller().snapToSelected(mCurrentTabIndex, true);
 			}
 			
@@ -310,7 +339,9 @@ public class PhoneUIManager extends BasePhoneUIManager {
 			int index = mFragmentsList.indexOf(parent);
 			if (index != -1) {
 				TabView tabview = mAdapter.getViewAt(index);
-				tabview.setFavicon(null);
+				if (tabview != null) {
+					tabview.setFavicon(null, null);
+				}
 			}
 		}
 	}
@@ -335,22 +366,19 @@ public class PhoneUIManager extends BasePhoneUIManager {
 	public void onClientPageFinished(final CustomWebView view, String url) {
 		super.onClientPageFinished(view, url);
 	
-		PhoneWebViewFragment parent = (PhoneWebViewFragment) view.getParentFragment();
+		final PhoneWebViewFragment parent = (PhoneWebViewFragment) view.getParentFragment();
 		
 		if ((parent != null) &&
 				(!parent.isStartPageShown()) &&
 				(!view.isLoading())) {
-			int index = mFragmentsList.indexOf(parent);
-			if (index != -1) {
-				final TabView tabview = mAdapter.getViewAt(index);
-				
-				mPanel.postDelayed(new Runnable() {					
-					@Override
-					public void run() {
-						tabview.setImage(view.capturePicture());
+			mPanel.postDelayed(new Runnable() {
+				@Override
+				public void run() {
+					if (mFragmentsList.contains(parent)) {
+						updateTabThumbnail(parent);
 					}
-				}, 50);
-			}
+				}
+			}, 50);
 		}
 	}
 
@@ -372,7 +400,9 @@ public class PhoneUIManager extends BasePhoneUIManager {
 			int index = mFragmentsList.indexOf(parent);
 			if (index != -1) {
 				TabView tabview = mAdapter.getViewAt(index);
-				tabview.setFavicon(icon);
+				if (tabview != null) {
+					tabview.setFavicon(view.getUrl(), icon);
+				}
 			}
 		}
 	}
@@ -546,6 +576,7 @@ public class PhoneUIManager extends BasePhoneUIManager {
 	
 	private void showTabByIndex(int index, boolean notifyTabSwitched) {
 		PhoneWebViewFragment oldFragment = mFragmentsList.get(mCurrentTabIndex);
+		updateTabThumbnail(oldFragment);
 		oldFragment.getWebView().onPause();
 		
 		TabView oldTabView = mAdapter.getViewAt(mCurrentTabIndex);
@@ -557,13 +588,62 @@ public class PhoneUIManager extends BasePhoneUIManager {
 		showCurrentTab(notifyTabSwitched);
 	}
 	
+	/**
+	 * Draw the thumbnail of a tab, in place of its previous one.
+	 * @param fragment The tab fragment.
+	 */
+	private void updateTabThumbnail(PhoneWebViewFragment fragment) {
+		CustomWebView webView = fragment.getWebView();
+		if ((fragment.isStartPageShown()) ||
+				(webView == null)) {
+			return;
+		}
+		
+		Picture picture = null;
+		if (webView.getWidth() <= 0) {
+			// Tabs loaded in background are not laid out, only their recorded picture can be drawn.
+			picture = webView.capturePicture();
+			if ((picture == null) ||
+					(picture.getWidth() <= 0)) {
+				return;
+			}
+		}
+		
+		Bitmap thumbnail = mTabThumbnails.get(fragment.getUUID());
+		if (thumbnail == null) {
+			thumbnail = Bitmap.createBitmap(mTabThumbnailWidth, mTabThumbnailHeight, Bitmap.Config.RGB_565);
+			mTabThumbnails.put(fragment.getUUID(), thumbnail);
+		}
+		
+		if (picture == null) {
+			ApplicationUtils.drawWebViewThumbnail(webView, thumbnail);
+		} else {
+			Canvas canvas = new Canvas(thumbnail);
+			canvas.drawColor(Color.WHITE);
+			
+			float scale = mTabThumbnailWidth / (float) picture.getWidth();
+			canvas.scale(scale, scale);
+			
+			picture.draw(canvas);
+		}
+		
+		TabView tabview = mAdapter.getViewAt(mFragmentsList.indexOf(fragment));
+		if (tabview != null) {
+			tabview.setImage(thumbnail);
+		}
+	}
+	
+	/**
+	 * Tabs views, kept by tab UUID and reused each time the panel is rebuilt. Views and thumbnails
+	 * of closed tabs are dropped on data set changes.
+	 */
 	private class TabAdapter extends BaseAdapter {
 		
-		private SparseArray<TabView> mViews;
+		private Map<UUID, TabView> mViews;
 		
 		public TabAdapter() {
 			super();
-			mViews = new SparseArray<TabView>();
+			mViews = new HashMap<UUID, TabView>();
 		}
 
 		@Override
@@ -583,26 +663,47 @@ public class PhoneUIManager extends BasePhoneUIManager {
 
 		@Override
 		public void notifyDataSetChanged() {
-			mViews.clear();
+			Set<UUID> tabs = new HashSet<UUID>();
+			for (PhoneWebViewFragment fragment : mFragmentsList) {
+				tabs.add(fragment.getUUID());
+			}
+			
+			mViews.keySet().retainAll(tabs);
+			mTabThumbnails.keySet().retainAll(tabs);
+			
 			super.notifyDataSetChanged();
 		}
 
 		@Override
 		public View getView(final int position, View convertView, ViewGroup parent) {
-			final TabView tabview = new TabView(mActivity);
-			
 			PhoneWebViewFragment fragment = getItem(position);
 			
+			TabView view = mViews.get(fragment.getUUID());
+			if (view == null) {
+				view = new TabView(mActivity);
+				mViews.put(fragment.getUUID(), view);
+			} else {
+				// Reset what the tabs scroller animations may have left.
+				view.setAlpha(1);
+				view.setTranslationX(0);
+				view.setTranslationY(0);
+				view.setRotationX(0);
+				view.setRotationY(0);
+			}
+			
+			final TabView tabview = view;
+			
 			if (fragment.isStartPageShown()) {
 				tabview.setTitle(R.string.StartPageLabel);
-				tabview.setFavicon(null);
+				tabview.setFavicon(null, null);
+				tabview.setImageResource(R.drawable.start_page);
 			} else {
 				CustomWebView webView = fragment.getWebView();
 				
 				tabview.setTitle(webView.getTitle());
 				
-				tabview.setFavicon(webView.getFavicon());
-				tabview.setImage(webView.isLoading() ? null : webView.capturePicture());
+				tabview.setFavicon(webView.getUrl(), webView.getFavicon());
+				tabview.setImage(mTabThumbnails.get(fragment.getUUID()));
 			}
 			
 			tabview.setSelected(position == mCurrentTabIndex);
@@ -620,13 +721,16 @@ public class PhoneUIManager extends BasePhoneUIManager {
 				}
 			});
 			
-			mViews.put(position, tabview);
-			
 			return tabview;
 		}
 		
 		public TabView getViewAt(int position) {
-			return mViews.get(position);
+			if ((position < 0) ||
+					(position >= mFragmentsList.size())) {
+				return null;
+			}
+			
+			return mViews.get(mFragmentsList.get(position).getUUID());
 		}
 		
 	}
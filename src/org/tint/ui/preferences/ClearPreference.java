@@ -16,7 +16,8 @@
 package org.tint.ui.preferences;
 
 import org.tint.controllers.Controller;
-import org.tint.providers.BookmarksWrapper;
+import org.tint.tasks.ClearHistoryBookmarksTask;
+import org.tint.tasks.TaskExecutors;
 import org.tint.utils.Constants;
 
 import android.content.Context;
@@ -54,7 +55,7 @@ public class ClearPreference extends DialogPreference {
 			if (key.equals(Constants.PREFERENCE_CLEAR_CACHE)) {
 				Controller.getInstance().getUIManager().clearCache();
 			} if (key.equals(Constants.PREFERENCE_CLEAR_HISTORY)) {
-				BookmarksWrapper.clearHistoryAndOrBookmarks(Controller.getInstance().getMainActivity().getContentResolver(), true, false);
+				new ClearHistoryBookmarksTask(getContext(), true, false).executeOnExecutor(TaskExecutors.BULK);
 			} else if (key.equals(Constants.PREFERENCE_CLEAR_COOKIES)) {
 				CookieManager.getInstance().removeAllCookie();
 			} else if (Constants.PREFERENCE_CLEAR_GEOLOCATION.equals(key)) {
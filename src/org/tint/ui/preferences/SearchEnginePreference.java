@@ -24,6 +24,7 @@ import org.tint.model.SearchUrlGroup;
 import org.tint.model.SearchUrlItem;
 import org.tint.tasks.SearchUrlTask;
 import org.tint.tasks.SearchUrlTask.ISearchUrlTaskListener;
+import org.tint.tasks.TaskExecutors;
 import org.tint.utils.Constants;
 import org.tint.utils.UrlUtils;
 
@@ -211,7 +212,7 @@ public class SearchEnginePreference extends DialogPreference implements ISearchU
 		mTask = new SearchUrlTask(getContext(), this);
 		boolean retVal = mSearchUrlSyncThread.compareAndSet(null, mTask);
 		if (retVal) {
-			mTask.execute();
+			mTask.executeOnExecutor(TaskExecutors.USER_READS);
 		}
 	}
 	
@@ -16,11 +16,9 @@
 package org.tint.ui.views;
 
 import org.tint.R;
+import org.tint.utils.FaviconCache;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Picture;
 import android.graphics.drawable.BitmapDrawable;
 import android.text.Html;
 import android.util.AttributeSet;
@@ -37,9 +35,6 @@ public class TabView extends LinearLayout {
 	private View mTitleBar;
 	private ImageView mImage;
 	
-	private int mImageWidth;
-	private int mImageHeight;
-	
 	private int mFaviconSize;
 	
 	private String mTitle;
@@ -75,8 +70,6 @@ public class TabView extends LinearLayout {
 		
 		float density = context.getResources().getDisplayMetrics().density;
 		
-		mImageWidth = (int) (200 * density);
-		mImageHeight = (int) (120 * density);
 		mFaviconSize = (int) (32 * density);
 	}
 
@@ -92,22 +85,16 @@ public class TabView extends LinearLayout {
 		return v == mImage;
 	}
 	
-	public void setImage(Picture picture) {
-		Bitmap bm = Bitmap.createBitmap(mImageWidth, mImageHeight, Bitmap.Config.ARGB_8888);
-		Canvas canvas = new Canvas(bm);
-		
-		Paint p = new Paint(Paint.ANTI_ALIAS_FLAG);
-		p.setColor(0xFFFFFFFF);
-		canvas.drawRect(0, 0, mImageWidth, mImageHeight, p);
-		
-		if (picture != null) {
-			float scale = mImageWidth / (float) picture.getWidth();
-			canvas.scale(scale, scale);
-
-			picture.draw(canvas);			
+	/**
+	 * Set the tab thumbnail.
+	 * @param thumbnail The thumbnail, or null to display a blank page.
+	 */
+	public void setImage(Bitmap thumbnail) {
+		if (thumbnail != null) {
+			mImage.setImageBitmap(thumbnail);
+		} else {
+			mImage.setImageResource(android.R.color.white);
 		}
-		
-		mImage.setImageBitmap(bm);
 	}
 	
 	public void setImageResource(int resource) {
@@ -129,10 +116,10 @@ public class TabView extends LinearLayout {
 		updateTitle();
 	}
 	
-	public void setFavicon(Bitmap icon) {
+	public void setFavicon(String url, Bitmap icon) {
 		BitmapDrawable bd;
 		if (icon != null) {
-			bd = new BitmapDrawable(getResources(), Bitmap.createScaledBitmap(icon, mFaviconSize, mFaviconSize, false));
+			bd = new BitmapDrawable(getResources(), FaviconCache.getInstance(getContext()).getFavicon(url, icon, mFaviconSize));
 		} else {
 			bd = null;
 		}
@@ -34,9 +34,11 @@ import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.util.Log;
+import android.webkit.WebView;
 import android.widget.Toast;
 
 public class ApplicationUtils {
@@ -67,21 +69,36 @@ public class ApplicationUtils {
 		return result;
 	}
 	
-	public static BitmapDrawable getApplicationButtonImage(Activity activity, Bitmap icon) {
+	/**
+	 * Get the application button image for a favicon. Images are kept in the favicon cache.
+	 * @param activity The current activity.
+	 * @param url The url the favicon belongs to, may be null.
+	 * @param icon The favicon.
+	 * @return The image, or null if there is no favicon.
+	 */
+	public static BitmapDrawable getApplicationButtonImage(Activity activity, String url, Bitmap icon) {
 		if (icon != null) {
 			int buttonSize = activity.getResources().getInteger(R.integer.application_button_size);
-			int size = activity.getResources().getInteger(R.integer.favicon_size);
 			
-			Drawable d = activity.getResources().getDrawable(R.drawable.bookmark_list_favicon_bg);						
-			Bitmap bm = Bitmap.createBitmap(buttonSize, buttonSize, Bitmap.Config.ARGB_8888);
+			FaviconCache cache = FaviconCache.getInstance(activity);
 			
-			Canvas canvas = new Canvas(bm);
-			d.setBounds(0, 0, buttonSize, buttonSize);
-			d.draw(canvas);
-
-			BitmapDrawable favIcon = new BitmapDrawable(activity.getResources(), icon);
-			favIcon.setBounds((buttonSize / 2) - (size / 2), (buttonSize / 2) - (size / 2), (buttonSize / 2) + (size / 2), (buttonSize / 2) + (size / 2));
-			favIcon.draw(canvas);
+			Bitmap bm = cache.getImage(url, "button", buttonSize, icon);
+			if (bm == null) {
+				int size = activity.getResources().getInteger(R.integer.favicon_size);
+				
+				Drawable d = activity.getResources().getDrawable(R.drawable.bookmark_list_favicon_bg);
+				bm = Bitmap.createBitmap(buttonSize, buttonSize, Bitmap.Config.ARGB_8888);
+				
+				Canvas canvas = new Canvas(bm);
+				d.setBounds(0, 0, buttonSize, buttonSize);
+				d.draw(canvas);
+				
+				BitmapDrawable favIcon = new BitmapDrawable(activity.getResources(), icon);
+				favIcon.setBounds((buttonSize / 2) - (size / 2), (buttonSize / 2) - (size / 2), (buttonSize / 2) + (size / 2), (buttonSize / 2) + (size / 2));
+				favIcon.draw(canvas);
+				
+				cache.putImage(url, "button", buttonSize, icon, bm);
+			}
 			
 			return new BitmapDrawable(activity.getResources(), bm);
 		} else {
@@ -98,6 +115,23 @@ public class ApplicationUtils {
 		return sBookmarksdimensions;
 	}
 	
+	/**
+	 * Draw the visible part of a page into a thumbnail, scaled to the thumbnail width. Only the visible part
+	 * is drawn, at the thumbnail size: this is much cheaper than rasterizing a capturePicture() of the page.
+	 * @param view The view displaying the page. It must be laid out.
+	 * @param thumbnail The thumbnail to draw into. Its previous content is erased.
+	 */
+	public static void drawWebViewThumbnail(WebView view, Bitmap thumbnail) {
+		Canvas canvas = new Canvas(thumbnail);
+		canvas.drawColor(Color.WHITE);
+		
+		float scale = thumbnail.getWidth() / (float) view.getWidth();
+		canvas.scale(scale, scale);
+		canvas.translate(-view.getScrollX(), -view.getScrollY());
+		
+		view.draw(canvas);
+	}
+	
 	/**
 	 * Share a page.
 	 * @param activity The parent activity.
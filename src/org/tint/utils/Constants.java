@@ -70,6 +70,8 @@ public class Constants {
 	public static final String PREFERENCE_REMEMBER_PASSWORDS = "PREFERENCE_REMEMBER_PASSWORDS";
 		
 	public static final String PREFERENCE_HISTORY_SIZE = "PREFERENCE_HISTORY_SIZE";
+	public static final String PREFERENCE_HISTORY_MAX_RECORDS = "PREFERENCE_HISTORY_MAX_RECORDS";
+	public static final String PREFERENCE_HISTORY_MAX_DATABASE_SIZE = "PREFERENCE_HISTORY_MAX_DATABASE_SIZE";
 	public static final String PREFERENCE_CLEAR_CACHE = "PREFERENCE_CLEAR_CACHE";
 	public static final String PREFERENCE_WEBSITES_SETTINGS = "PREFERENCE_WEBSITES_SETTINGS";
 	public static final String PREFERENCE_SSL_EXCEPTIONS = "PREFERENCE_SSL_EXCEPTIONS";
@@ -105,4 +107,10 @@ public class Constants {
 	public static final String TECHNICAL_PREFERENCE_ADDON_ENABLED = "TECHNICAL_PREFERENCE_ADDON_ENABLED_";
 	public static final String TECHNICAL_PREFERENCE_SAVED_TABS = "TECHNICAL_PREFERENCE_SAVED_TABS";
 	public static final String TECHNICAL_PREFERENCE_HOMEPAGE_URL_UPDATE_NEEDED = "TECHNICAL_PREFERENCE_HOMEPAGE_URL_UPDATE_NEEDED";
+	public static final String TECHNICAL_PREFERENCE_DATABASE_WRITE_AHEAD_LOGGING = "TECHNICAL_PREFERENCE_DATABASE_WRITE_AHEAD_LOGGING";
+	public static final String TECHNICAL_PREFERENCE_LAST_FRECENCY_DECAY = "TECHNICAL_PREFERENCE_LAST_FRECENCY_DECAY";
+	public static final String TECHNICAL_PREFERENCE_LAST_DATABASE_MAINTENANCE = "TECHNICAL_PREFERENCE_LAST_DATABASE_MAINTENANCE";
+	public static final String TECHNICAL_PREFERENCE_BOOKMARKS_DATABASE_STATS = "TECHNICAL_PREFERENCE_BOOKMARKS_DATABASE_STATS_";
+	public static final String TECHNICAL_PREFERENCE_SSL_EXCEPTIONS_DATABASE_STATS = "TECHNICAL_PREFERENCE_SSL_EXCEPTIONS_DATABASE_STATS_";
+	public static final String TECHNICAL_PREFERENCE_THUMBNAILS_MIGRATION_NEEDED = "TECHNICAL_PREFERENCE_THUMBNAILS_MIGRATION_NEEDED";
 }
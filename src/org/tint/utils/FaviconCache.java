@@ -0,0 +1,300 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.utils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of decoded and scaled favicons, keyed by host, usage and size.
+ * Each entry remembers its source, so that an entry is replaced when the favicon of its host changes.
+ * Cached bitmaps may be displayed: they are never recycled, evicted ones are left to the garbage collector.
+ */
+public class FaviconCache implements ComponentCallbacks2 {
+	
+	/**
+	 * Part of the application memory the cache may use.
+	 */
+	private static final int MEMORY_DIVIDER = 32;
+	
+	private static FaviconCache sInstance = null;
+	
+	/**
+	 * A cached bitmap, and the fingerprint of the source it has been built from.
+	 */
+	private static class Entry {
+		private long mSource;
+		private Bitmap mBitmap;
+		
+		public Entry(long source, Bitmap bitmap) {
+			mSource = source;
+			mBitmap = bitmap;
+		}
+	}
+	
+	private LruCache<String, Entry> mCache;
+	
+	private long mHits;
+	private long mMisses;
+	
+	/**
+	 * Get the cache, creating it on first use. The cache is trimmed when the system asks for memory.
+	 * @param context The current context.
+	 * @return The cache.
+	 */
+	public static synchronized FaviconCache getInstance(Context context) {
+		if (sInstance == null) {
+			sInstance = new FaviconCache((int) Math.min(Runtime.getRuntime().maxMemory() / MEMORY_DIVIDER, Integer.MAX_VALUE));
+			context.getApplicationContext().registerComponentCallbacks(sInstance);
+		}
+		
+		return sInstance;
+	}
+	
+	private FaviconCache(int maxBytes) {
+		mCache = new LruCache<String, Entry>(maxBytes) {
+			@Override
+			protected int sizeOf(String key, Entry value) {
+				return value.mBitmap.getRowBytes() * value.mBitmap.getHeight();
+			}
+		};
+		
+		mHits = 0;
+		mMisses = 0;
+	}
+	
+	/**
+	 * Get a stored favicon, decoded and scaled.
+	 * @param url The url the favicon belongs to, may be null.
+	 * @param data The favicon data, as stored in the bookmarks database.
+	 * @param size The size to scale the favicon to, or 0 to keep its size.
+	 * @return The favicon, or null.
+	 */
+	public Bitmap getFavicon(String url, byte[] data, int size) {
+		if (data == null) {
+			return null;
+		}
+		
+		return getFaviconByKey(getFaviconKey(url, data, size), data, size);
+	}
+	
+	/**
+	 * Get the cache key of a stored favicon. Callers displaying the same favicons repeatedly, e.g. in lists,
+	 * can keep it and use getFaviconByKey(), which does not allocate when the favicon is cached.
+	 * @param url The url the favicon belongs to, may be null.
+	 * @param data The favicon data.
+	 * @param size The size to scale the favicon to, or 0 to keep its size.
+	 * @return The key.
+	 */
+	public static String getFaviconKey(String url, byte[] data, int size) {
+		return getKey(url, "favicon", size, getSource(data));
+	}
+	
+	/**
+	 * Get a stored favicon, decoded and scaled, see getFaviconKey().
+	 * @param key The key returned by getFaviconKey() for these data and size.
+	 * @param data The favicon data, as stored in the bookmarks database.
+	 * @param size The size to scale the favicon to, or 0 to keep its size.
+	 * @return The favicon, or null.
+	 */
+	public Bitmap getFaviconByKey(String key, byte[] data, int size) {
+		if (data == null) {
+			return null;
+		}
+		
+		long source = getSource(data);
+		
+		Bitmap result = get(key, source);
+		if (result == null) {
+			Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length);
+			if (decoded != null) {
+				result = scale(decoded, size);
+				put(key, source, result);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get a favicon, scaled.
+	 * @param url The url the favicon belongs to, may be null.
+	 * @param icon The favicon, e.g. as given by a WebView.
+	 * @param size The size to scale the favicon to.
+	 * @return The scaled favicon, or null.
+	 */
+	public Bitmap getFavicon(String url, Bitmap icon, int size) {
+		if (icon == null) {
+			return null;
+		}
+		
+		long source = getSource(icon);
+		String key = getKey(url, "favicon", size, source);
+		
+		Bitmap result = get(key, source);
+		if (result == null) {
+			result = scale(icon, size);
+			put(key, source, result);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get a cached image built from a favicon, e.g. a composited button image.
+	 * @param url The url the favicon belongs to, may be null.
+	 * @param usage The image usage, part of the cache key.
+	 * @param size The image size.
+	 * @param icon The source favicon.
+	 * @return The image, or null if it is not cached.
+	 */
+	public Bitmap getImage(String url, String usage, int size, Bitmap icon) {
+		long source = getSource(icon);
+		return get(getKey(url, usage, size, source), source);
+	}
+	
+	/**
+	 * Cache an image built from a favicon, see getImage().
+	 */
+	public void putImage(String url, String usage, int size, Bitmap icon, Bitmap image) {
+		long source = getSource(icon);
+		put(getKey(url, usage, size, source), source, image);
+	}
+	
+	/**
+	 * Compute a 64 bits FNV-1a hash of a favicon size and pixels. A WebView gives a new bitmap
+	 * for each page of a site: equal favicons are recognized by their pixels.
+	 * @param favicon The favicon.
+	 * @return The fingerprint.
+	 */
+	public static long getFingerprint(Bitmap favicon) {
+		int width = favicon.getWidth();
+		int height = favicon.getHeight();
+		
+		int[] pixels = new int[width * height];
+		favicon.getPixels(pixels, 0, width, 0, 0, width, height);
+		
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ width) * 0x100000001b3L;
+		hash = (hash ^ height) * 0x100000001b3L;
+		
+		for (int pixel : pixels) {
+			hash = (hash ^ pixel) * 0x100000001b3L;
+		}
+		
+		return hash;
+	}
+	
+	public synchronized long getHits() {
+		return mHits;
+	}
+	
+	public synchronized long getMisses() {
+		return mMisses;
+	}
+	
+	@Override
+	public void onTrimMemory(int level) {
+		if (level >= TRIM_MEMORY_BACKGROUND) {
+			mCache.evictAll();
+		} else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+			trimToHalf();
+		}
+	}
+	
+	@Override
+	public void onLowMemory() {
+		mCache.evictAll();
+	}
+	
+	@Override
+	public void onConfigurationChanged(Configuration newConfig) { }
+	
+	private Bitmap get(String key, long source) {
+		Entry entry = mCache.get(key);
+		
+		synchronized (this) {
+			if ((entry != null) &&
+					(entry.mSource == source)) {
+				mHits++;
+				return entry.mBitmap;
+			}
+			
+			mMisses++;
+			return null;
+		}
+	}
+	
+	private void put(String key, long source, Bitmap bitmap) {
+		if (bitmap != null) {
+			mCache.put(key, new Entry(source, bitmap));
+		}
+	}
+	
+	/**
+	 * Evict the least recently used half of the cache. LruCache.trimToSize() is not available before API 17.
+	 */
+	private void trimToHalf() {
+		int target = mCache.size() / 2;
+		
+		Iterator<String> keys = mCache.snapshot().keySet().iterator();
+		while ((mCache.size() > target) &&
+				(keys.hasNext())) {
+			mCache.remove(keys.next());
+		}
+	}
+	
+	/**
+	 * Build the cache key. Favicons of known hosts are keyed by host, so that a host has a single entry per usage
+	 * and size. Others are keyed by their source.
+	 */
+	private static String getKey(String url, String usage, int size, long source) {
+		String host = TextUtils.isEmpty(url) ? null : Uri.parse(url).getHost();
+		
+		if (TextUtils.isEmpty(host)) {
+			return "#" + source + "/" + usage + "/" + size;
+		} else {
+			return host + "/" + usage + "/" + size;
+		}
+	}
+	
+	private static long getSource(byte[] data) {
+		return Arrays.hashCode(data) ^ ((long) data.length << 32);
+	}
+	
+	private static long getSource(Bitmap icon) {
+		return getFingerprint(icon);
+	}
+	
+	private static Bitmap scale(Bitmap bitmap, int size) {
+		if ((size <= 0) ||
+				((bitmap.getWidth() == size) && (bitmap.getHeight() == size))) {
+			return bitmap;
+		}
+		
+		return Bitmap.createScaledBitmap(bitmap, size, size, true);
+	}
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Tint Browser for Android
+ * 
+ * Copyright (C) 2012 - to infinity and beyond J. Devauchelle and contributors.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 3 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+package org.tint.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.tint.providers.ThumbnailStore;
+import org.tint.tasks.TaskExecutors;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.widget.ImageView;
+
+/**
+ * Asynchronous binding of bookmarks thumbnails to image views, e.g. in adapters.
+ * Thumbnails are decoded on the images lane, the view showing a placeholder meanwhile. Pending work
+ * for a recycled view is cancelled. The bitmaps a view no longer displays are pooled, and decoded into again.
+ * Methods must be called from the UI thread.
+ */
+public class ThumbnailBinder {
+	
+	private static final int POOL_SIZE = 8;
+	
+	private ThumbnailStore mStore;
+	private int mWidth;
+	private int mHeight;
+	private int mPlaceholderId;
+	
+	private Map<ImageView, Binding> mBindings;
+	private List<Bitmap> mPool;
+	
+	/**
+	 * Constructor.
+	 * @param context The current context.
+	 * @param dimensions The thumbnails display dimensions.
+	 * @param placeholderId The resource displayed until a thumbnail is decoded, or when there is none.
+	 */
+	public ThumbnailBinder(Context context, int[] dimensions, int placeholderId) {
+		mStore = ThumbnailStore.getInstance(context);
+		mWidth = dimensions[0];
+		mHeight = dimensions[1];
+		mPlaceholderId = placeholderId;
+		
+		mBindings = new WeakHashMap<ImageView, Binding>();
+		mPool = new ArrayList<Bitmap>(POOL_SIZE);
+	}
+	
+	/**
+	 * Display the thumbnail of a bookmark. Nothing is done if the view already displays, or is decoding, the
+	 * current thumbnail of this bookmark, so that rebinding the same rows does not flicker.
+	 * @param view The image view.
+	 * @param id The bookmark id.
+	 */
+	public void bind(ImageView view, long id) {
+		int version = mStore.getVersion();
+		
+		Binding binding = mBindings.get(view);
+		if ((binding != null) &&
+				(binding.mId == id) &&
+				(binding.mVersion == version) &&
+				(!binding.isDropped())) {
+			return;
+		}
+		
+		if ((binding != null) &&
+				(binding.mId == id)) {
+			// The thumbnail may have changed: the current one stays displayed until it is decoded again.
+			binding.cancel();
+		} else {
+			unbind(view, mPlaceholderId);
+			
+			binding = new Binding(id);
+			mBindings.put(view, binding);
+		}
+		
+		binding.mVersion = version;
+		binding.mTask = new BindTask(view, binding, acquireBitmap());
+		binding.mTask.executeOnExecutor(TaskExecutors.IMAGES);
+	}
+	
+	/**
+	 * Stop displaying a thumbnail in a view, e.g. when it is recycled for a row without thumbnail.
+	 * @param view The image view.
+	 * @param resourceId The resource to display instead.
+	 */
+	public void unbind(ImageView view, int resourceId) {
+		// The view must stop displaying its bitmap before it is pooled.
+		view.setImageResource(resourceId);
+		
+		Binding binding = mBindings.remove(view);
+		if (binding != null) {
+			binding.cancel();
+			releaseBitmap(binding.mBitmap);
+		}
+	}
+	
+	private Bitmap acquireBitmap() {
+		return mPool.isEmpty() ? null : mPool.remove(mPool.size() - 1);
+	}
+	
+	private void releaseBitmap(Bitmap bitmap) {
+		if ((bitmap != null) &&
+				(bitmap.isMutable()) &&
+				(!bitmap.isRecycled()) &&
+				(mPool.size() < POOL_SIZE)) {
+			mPool.add(bitmap);
+		}
+	}
+	
+	/**
+	 * The thumbnail bound to a view.
+	 */
+	private static class Binding {
+		
+		private long mId;
+		private int mVersion;
+		private Bitmap mBitmap;
+		private BindTask mTask;
+		
+		public Binding(long id) {
+			mId = id;
+			mVersion = -1;
+			mBitmap = null;
+			mTask = null;
+		}
+		
+		public void cancel() {
+			if (mTask != null) {
+				mTask.cancel(false);
+				mTask = null;
+			}
+		}
+		
+		/**
+		 * @return True if the pending task was dropped by the images lane, without having been cancelled here.
+		 */
+		public boolean isDropped() {
+			return (mTask != null) && (mTask.isCancelled());
+		}
+		
+	}
+	
+	private class BindTask extends AsyncTask<Void, Void, Bitmap> {
+		
+		private ImageView mView;
+		private Binding mBinding;
+		private Bitmap mReuse;
+		
+		public BindTask(ImageView view, Binding binding, Bitmap reuse) {
+			mView = view;
+			mBinding = binding;
+			mReuse = reuse;
+		}
+		
+		@Override
+		protected Bitmap doInBackground(Void... params) {
+			if (isCancelled()) {
+				return null;
+			}
+			
+			return mStore.getThumbnail(mBinding.mId, mWidth, mHeight, mReuse);
+		}
+		
+		@Override
+		protected void onPostExecute(Bitmap result) {
+			if (mBinding.mTask != this) {
+				onCancelled(result);
+				return;
+			}
+			
+			mBinding.mTask = null;
+			
+			Bitmap previous = mBinding.mBitmap;
+			mBinding.mBitmap = result;
+			
+			if (result != null) {
+				mView.setImageBitmap(result);
+			} else {
+				mView.setImageResource(mPlaceholderId);
+			}
+			
+			if (previous != result) {
+				releaseBitmap(previous);
+			}
+			
+			if (mReuse != result) {
+				releaseBitmap(mReuse);
+			}
+		}
+		
+		@Override
+		protected void onCancelled(Bitmap result) {
+			if (mBinding.mTask == this) {
+				// Dropped by the lane: the view keeps its current image, and is decoded again on the next bind.
+				mBinding.mTask = null;
+				mBinding.mVersion = -1;
+			}
+			
+			releaseBitmap(result);
+			
+			if (mReuse != result) {
+				releaseBitmap(mReuse);
+			}
+		}
+		
+	}
+
+}